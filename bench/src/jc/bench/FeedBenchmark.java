@@ -0,0 +1,42 @@
+package jc.bench;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import chariot.model.TVFeedEvent;
+import jc.app.Feed;
+import jc.model.JCState;
+
+/**
+ * Events per second through Feed.watch, from a synthetic TV feed to the consumer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedBenchmark {
+
+    static final int events = 10_000;
+
+    List<TVFeedEvent> tvFeed;
+
+    @Setup
+    public void setup() {
+        tvFeed = Positions.tvFeed(events);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(events)
+    public void featuredGame() throws InterruptedException {
+        var done = new CountDownLatch(1);
+        Feed feed = Feed.featuredGame(state -> {
+            if (state instanceof JCState.WithMove(_, String lm) && lm.equals("end")) done.countDown();
+        }, tvFeed.stream());
+        done.await();
+        feed.stop();
+    }
+}
@@ -0,0 +1,72 @@
+package jc.bench;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import chariot.model.Enums.Color;
+import chariot.util.Board;
+import jc.model.JCState;
+import jc.model.JCState.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JCStateBenchmark {
+
+    JCState state;
+    JCState flippedState;
+    Board board;
+    String fen;
+    Duration whiteTime = Duration.ofSeconds(170);
+    Duration blackTime = Duration.ofSeconds(175);
+
+    @Setup
+    public void setup() {
+        var white = new JCPlayerInfo(new JCUser("White", "GM"), Duration.ofMinutes(3), Color.white);
+        var black = new JCPlayerInfo(new JCUser("Black", ""), Duration.ofMinutes(3), Color.black);
+        fen = Positions.fens().get(10);
+        board = Board.fromFEN(fen);
+        state = JCState.of(white, black, board, false).withLastMove(Positions.moves.get(10));
+        flippedState = JCState.of(white, black, board, true).withLastMove(Positions.moves.get(10));
+    }
+
+    @Benchmark
+    public JCState boardUpdate() {
+        return state
+            .withBoard(board)
+            .withWhiteTime(whiteTime)
+            .withBlackTime(blackTime)
+            .withLastMove("e2e4");
+    }
+
+    @Benchmark
+    public JCState update() {
+        return state.withUpdate(board, 170_000, 175_000, "e2e4", System.nanoTime());
+    }
+
+    @Benchmark
+    public String render() {
+        return JCState.render(state);
+    }
+
+    @Benchmark
+    public String renderFlipped() {
+        return JCState.render(flippedState);
+    }
+
+    // The cost of a render cache miss
+    @Benchmark
+    public String renderBoard() {
+        return board.toString(c -> c.frame().coordinates());
+    }
+
+    @Benchmark
+    public Board fromFEN() {
+        return Board.fromFEN(fen);
+    }
+}
@@ -0,0 +1,26 @@
+package jc.bench;
+
+import java.util.List;
+
+import chariot.model.TVFeedEvent;
+import jc.app.SyntheticFeed;
+
+/**
+ * Positions of a real game, used as input to the benchmarks - the opera game of {@link SyntheticFeed}
+ */
+final class Positions {
+
+    static final List<String> moves = SyntheticFeed.opera;
+
+    static List<String> fens() {
+        return SyntheticFeed.operaPositions();
+    }
+
+    /**
+     * A featured game followed by its moves, repeated until there are count events.
+     * The last event has the last move "end".
+     */
+    static List<TVFeedEvent> tvFeed(int count) {
+        return SyntheticFeed.tvFeed(count).toList();
+    }
+}
@@ -1,43 +1,377 @@
 package jc;
 
+import java.io.*;
+import java.nio.file.Path;
+import java.time.*;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.*;
+import java.util.stream.*;
 
 import chariot.model.Enums.Channel;
+import chariot.model.Opt;
+import chariot.model.Some;
 import jc.app.*;
+import jc.metrics.Metrics;
+import jc.model.History;
 import jc.model.JCState;
 
 class Main {
 
     public static void main(String[] args) {
-        var argsList = Arrays.stream(args).toList();
-        boolean play = argsList.stream().anyMatch(s -> s.contains("play"));
+        var argsList = Arrays.stream(args).filter(s -> !s.startsWith("--")).toList();
+        var options = Arrays.stream(args).filter(s -> s.startsWith("--")).toList();
+        // The command is matched exactly, so a mistyped command never falls through to "play",
+        // which seeks a game on the user's account
+        String command = argsList.isEmpty() ? "" : argsList.getFirst();
+        int arguments = argsList.size() - 1;
 
-        if (play) {
-            play();
-        } else {
-            watch(argsList);
+        if (options.contains("--metrics")) reportMetrics();
+
+        switch(command) {
+            case "play" -> {
+                if (arguments != 0) usage("play [--headless]");
+                else play(options);
+            }
+            case "replay" -> {
+                if (arguments != 1) usage("replay <log> [--fast]");
+                else replay(Path.of(argsList.get(1)), options);
+            }
+            case "serve" -> serve(argsList.subList(1, argsList.size()), options);
+            case "search" -> {
+                if (arguments != 2) usage("search <archive directory> <fen> [--page=<page>] [--page-size=<games>]");
+                else search(Path.of(argsList.get(1)), argsList.get(2), options);
+            }
+            case "train" -> {
+                if (arguments > 1) usage("train [events]");
+                else train(arguments == 1 ? Integer.parseInt(argsList.get(1)) : 5000);
+            }
+            case "soak" -> soak(options);
+            default -> watch(argsList, options);
         }
+    }
 
+    static void usage(String command) {
+        System.err.println("Usage: jc " + command);
     }
 
-    static void watch(List<String> args) {
-        Consumer<JCState> consumer = state -> System.out.println(JCState.render(state));
+    static void watch(List<String> args, List<String> options) {
+        if (args.size() > 1 || args.contains("all")) {
+            watchAll(args, options);
+            return;
+        }
 
-        Feed tvFeed = args.isEmpty()
-            ? Feed.featuredGame(consumer)
-            : switch(args.getFirst()) {
-                case "classical" -> Feed.featuredGame(consumer, Channel.classical);
-                case "rapid" -> Feed.featuredGame(consumer, Channel.rapid);
-                case "blitz" -> Feed.featuredGame(consumer, Channel.blitz);
-                case String gameId -> Feed.gameId(gameId, consumer);
-            };
+        String source = args.isEmpty() ? "" : args.getFirst();
+        Consumer<JCState> consumer = consumer(options);
 
-        System.console().readLine();
+        Optional<Path> record = pathOption(options, "--record=");
+        Optional<Archive> archive = pathOption(options, "--archive=").map(Archive::open);
+
+        // The events are logged, archived and written as lines in that order, as they are parsed
+        Function<Stream<Feed.Unparsed>, Stream<Feed.Unparsed>> through = Function.identity();
+        if (record.isPresent()) through = through.andThen(stream -> FeedLog.record(record.get(), stream));
+        if (archive.isPresent()) through = through.andThen(archive.get()::record);
+        through = through.andThen(lines(options, source.isEmpty() ? "featured" : source));
+
+        Feed tvFeed = Feed.source(source, through::apply, consumer);
+
+        controls(tvFeed);
         tvFeed.stop();
+        archive.ifPresent(Archive::close);
+    }
+
+    // Reads lines until an empty one: "b" steps back a move through the history of the game,
+    // "f" forward and "l" back to the live position - each followed by enter
+    static void controls(Feed feed) {
+        while(System.console().readLine() instanceof String line && !line.isBlank()) {
+            switch(line.strip()) {
+                case "b" -> feed.step(-1);
+                case "f" -> feed.step(1);
+                case "l" -> feed.step(History.defaultCapacity);
+                default -> {}
+            }
+        }
+    }
+
+    static Optional<Path> pathOption(List<String> options, String prefix) {
+        return options.stream()
+            .filter(option -> option.startsWith(prefix))
+            .map(option -> Path.of(option.substring(prefix.length())))
+            .findFirst();
+    }
+
+    // A page of the games at a time, latest game first, so a common position doesn't read the whole archive
+    static void search(Path directory, String fen, List<String> options) {
+        int page = intOption(options, "--page=", 1);
+        int pageSize = intOption(options, "--page-size=", 50);
+        try (var archive = Archive.open(directory)) {
+            long start = System.nanoTime();
+            long total = archive.countReaching(fen);
+            var games = archive.gamesReaching(fen, (long) (page - 1) * pageSize, pageSize).stream()
+                .map(archive::read)
+                .toList();
+            long micros = (System.nanoTime() - start) / 1000;
+            for (var game : games) {
+                System.out.println("%s - %s %s %s".formatted(
+                            game.white().name(), game.black().name(), game.result(),
+                            String.join(" ", game.plies().stream().map(Archive.Ply::lm).toList())));
+            }
+            System.out.println("%d of %d games (page %d) in %dµs".formatted(games.size(), total, page, micros));
+        }
+    }
+
+    static void replay(Path log, List<String> options) {
+        Feed feed = Feed.replay(log, !options.contains("--fast"), lines(options, log.getFileName().toString()), consumer(options));
+
+        controls(feed);
+        feed.stop();
+    }
+
+    // Each source is watched once, and broadcast to any number of viewers on a port of its own
+    static void serve(List<String> sources, List<String> options) {
+        int port = intOption(options, "--port=", 7878);
+        boolean tenths = options.contains("--tenths");
+        Ticker.shared.tenths(tenths);
+
+        List<String> served = sources.isEmpty() ? List.of("") : sources;
+        List<Broadcast> broadcasts = new ArrayList<>();
+        List<Feed> feeds = new ArrayList<>();
+        try {
+            for (String source : served) {
+                var broadcast = Broadcast.start(port + broadcasts.size(), tenths);
+                broadcasts.add(broadcast);
+                feeds.add(Feed.source(source, broadcast));
+                System.out.println((source.isEmpty() ? "featured" : source) + " on port " + broadcast.port());
+            }
+        } catch(IOException ioe) {
+            System.err.println("Failed to listen on port " + (port + broadcasts.size()) + ": " + ioe.getMessage());
+        }
+
+        System.console().readLine();
+        feeds.forEach(Feed::stop);
+        broadcasts.forEach(Broadcast::stop);
+    }
+
+    // Runs a synthetic feed through the renderers without network access or console,
+    // for recording which classes to put in the AOT cache - and reports the time to the first board.
+    static final Duration trainTimeout = Duration.ofMinutes(1);
+
+    static void train(int events) {
+        var devNull = new PrintStream(OutputStream.nullOutputStream());
+        var ansi = new AnsiRenderer(devNull, true);
+        var lines = new LineOutput(OutputStream.nullOutputStream(), LineOutput.Format.ndjson);
+        var firstBoard = new CountDownLatch(1);
+        var done = new CountDownLatch(1);
+
+        Feed feed = Feed.featuredGame(state -> {
+            devNull.print(JCState.render(state));
+            ansi.accept(state);
+            // The first board is there when it has been written, not when its state was folded
+            if (!(state instanceof JCState.None)) firstBoard.countDown();
+            if (state instanceof JCState.WithMove(_, String lm) && lm.equals("end")) done.countDown();
+        }, SyntheticFeed.tvFeed(events), stream -> lines.record("train", stream));
+
+        // A training run which doesn't finish fails, so the build running it fails instead of hanging
+        long deadline = System.nanoTime() + trainTimeout.toNanos();
+        boolean trained = false;
+        try {
+            if (firstBoard.await(trainTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                long toFirstBoard = ProcessHandle.current().info().startInstant()
+                    .map(start -> Duration.between(start, Instant.now()).toMillis())
+                    .orElse(-1L);
+                if (done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    System.out.println("Time to first board: " + toFirstBoard + " ms");
+                    trained = true;
+                }
+            }
+        } catch(InterruptedException ie) {
+            // Stopped
+        }
+        feed.stop();
+        if (!trained) {
+            System.err.println("Training run did not finish within " + trainTimeout.toSeconds() + "s, failures: " + Metrics.reader().snapshot().failures());
+            System.exit(1);
+        }
     }
 
-    static void play() {
+    // Watches many concurrent synthetic games, reporting throughput, event age percentiles and memory,
+    // until the duration has passed or, without a duration, until an empty line is entered.
+    static void soak(List<String> options) {
+        int games = intOption(options, "--games=", 100);
+        int played = intOption(options, "--played=", games);
+        Duration moveInterval = Duration.ofMillis(intOption(options, "--move-interval=", 1000));
+        Duration report = Duration.ofSeconds(intOption(options, "--report=", 10));
+        Duration duration = Duration.ofMinutes(intOption(options, "--duration=", 0));
+        boolean render = !options.contains("--no-render");
+
+        var generated = new LongAdder();
+        List<Feed> feeds = IntStream.range(0, games)
+            .mapToObj(i -> Feed.featuredGame(
+                        state -> { if (render) JCState.render(state); },
+                        SyntheticFeed.randomGames(new Random(i), moveInterval).peek(_ -> generated.increment())))
+            .toList();
+        // The same games through the state loop of a played game
+        List<Game> playing = IntStream.range(0, played)
+            .mapToObj(i -> Game.synthetic("soak-" + i,
+                        SyntheticFeed.gameStates(new Random(games + i), moveInterval).peek(_ -> generated.increment()),
+                        state -> { if (render) JCState.render(state); }))
+            .toList();
+
+        System.out.println("Soaking " + games + " watched and " + played + " played games, mean move interval " + moveInterval.toMillis() + "ms");
+        var reporter = Thread.ofVirtual().name("jc-soak").start(() -> {
+            long start = System.nanoTime();
+            long previousGenerated = 0;
+            long previousNanos = start;
+            var metrics = Metrics.reader();
+            while(true) {
+                try {
+                    Thread.sleep(report);
+                } catch(InterruptedException ie) {
+                    break;
+                }
+                long now = System.nanoTime();
+                double seconds = (now - previousNanos) / 1e9;
+                long generatedNow = generated.sum();
+                var snapshot = metrics.snapshot();
+                var age = snapshot.age();
+                double delivered = snapshot.pipelines().stream().mapToDouble(Metrics.PipelineSnapshot::eventsPerSecond).sum();
+                long dropped = snapshot.pipelines().stream().mapToLong(Metrics.PipelineSnapshot::dropped).sum();
+                var runtime = Runtime.getRuntime();
+                System.out.printf("%6ds generated %9.0f/s delivered %9.0f/s dropped %d age p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms render %.1fµs heap %dMiB%n",
+                        Duration.ofNanos(now - start).toSeconds(),
+                        (generatedNow - previousGenerated) / seconds, delivered, dropped,
+                        age.p50Millis(), age.p99Millis(), age.p999Millis(), age.maxMillis(),
+                        snapshot.meanRenderMicros(),
+                        (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+                previousGenerated = generatedNow;
+                previousNanos = now;
+            }
+        });
+
+        if (duration.isZero()) {
+            System.console().readLine();
+        } else {
+            try {
+                Thread.sleep(duration);
+            } catch(InterruptedException ie) {
+                // Stopping
+            }
+        }
+        reporter.interrupt();
+        feeds.forEach(Feed::stop);
+        Game.stopAll(playing);
+    }
+
+    static int intOption(List<String> options, String prefix, int defaultValue) {
+        return options.stream()
+            .filter(option -> option.startsWith(prefix))
+            .map(option -> Integer.parseInt(option.substring(prefix.length())))
+            .findFirst()
+            .orElse(defaultValue);
+    }
+
+    static Consumer<JCState> consumer(List<String> options) {
+        // The lines are written as the events are parsed, see lines
+        if (lineFormat(options) instanceof Some(_)) return _ -> {};
+
+        boolean tenths = options.contains("--tenths");
+        Ticker.shared.tenths(tenths);
+
+        if (options.contains("--ansi")) {
+            var renderer = new AnsiRenderer(System.out, tenths);
+            renderer.clear();
+            return renderer;
+        }
+        return state -> System.out.println(JCState.render(state, tenths));
+    }
+
+    // Writes the metrics to stderr every 10 seconds, to not mix with boards on stdout
+    static void reportMetrics() {
+        Thread.ofVirtual().name("jc-metrics").start(() -> {
+            var metrics = Metrics.reader();
+            while(true) {
+                try {
+                    Thread.sleep(Duration.ofSeconds(10));
+                } catch(InterruptedException ie) {
+                    break;
+                }
+                var snapshot = metrics.snapshot();
+                for (var p : snapshot.pipelines()) {
+                    System.err.printf("%-20s depth %4d events %8d (%7.1f/s) merged %8d dropped %6d age mean %7.2fms max %7.2fms%n",
+                            p.name(), p.queueDepth(), p.events(), p.eventsPerSecond(), p.coalesced(), p.dropped(), p.meanAgeMillis(), p.maxAgeMillis());
+                }
+                var age = snapshot.age();
+                System.err.printf("age p50 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms%n",
+                        age.p50Millis(), age.p99Millis(), age.p999Millis(), age.maxMillis());
+                System.err.printf("renders %d (mean %.1fµs) fen parses %d (mean %.1fµs) failures %d%n",
+                        snapshot.renders(), snapshot.meanRenderMicros(), snapshot.fenParses(), snapshot.meanFenParseMicros(),
+                        snapshot.failures());
+            }
+        });
+    }
+
+    static UnaryOperator<Stream<Feed.Unparsed>> lines(List<String> options, String source) {
+        if (lineFormat(options) instanceof Some(var format)) {
+            var lines = LineOutput.stdout(format);
+            return stream -> lines.record(source, stream);
+        }
+        return UnaryOperator.identity();
+    }
+
+    static Opt<LineOutput.Format> lineFormat(List<String> options) {
+        if (options.contains("--ndjson")) return Opt.of(LineOutput.Format.ndjson);
+        if (options.contains("--fen")) return Opt.of(LineOutput.Format.fen);
+        return Opt.empty();
+    }
+
+    static void watchAll(List<String> args, List<String> options) {
+        // A log holds the events of one feed
+        if (pathOption(options, "--record=").isPresent()) {
+            System.err.println("--record takes a single source, use --archive= to store the games of several sources");
+            return;
+        }
+
+        List<String> sources = args.stream()
+            .flatMap(arg -> arg.equals("all")
+                    ? Arrays.stream(Channel.values()).map(Channel::name)
+                    : Stream.of(arg))
+            .distinct()
+            .toList();
+
+        final BiConsumer<String, JCState> consumer;
+        Optional<TiledView> tiled = Optional.empty();
+        if (options.contains("--tiled")) {
+            boolean tenths = options.contains("--tenths");
+            Ticker.shared.tenths(tenths);
+            var view = TiledView.start(System.out, sources,
+                    intOption(options, "--columns=", 3), intOption(options, "--fps=", 10), tenths);
+            tiled = Optional.of(view);
+            consumer = view;
+        } else if (lineFormat(options) instanceof Some(_)) {
+            // The lines are written as the events are parsed
+            consumer = (_, _) -> {};
+        } else {
+            consumer = (source, state) -> System.out.println(source + "\n" + JCState.render(state));
+        }
+
+        Optional<Archive> archive = pathOption(options, "--archive=").map(Archive::open);
+        Feed feeds = Feed.all(sources,
+                (source, stream) -> lines(options, source).apply(archive.isPresent() ? archive.get().record(stream) : stream),
+                consumer);
+
+        controls(feeds);
+        feeds.stop();
+        tiled.ifPresent(TiledView::stop);
+        archive.ifPresent(Archive::close);
+    }
+
+    static void play(List<String> options) {
+        if (options.contains("--headless")) {
+            playHeadless();
+            return;
+        }
+
         Play play = Play.casual15m10s();
         play.startSeek();
 
@@ -45,4 +379,28 @@ class Main {
         play.stop();
     }
 
+    // Boards are written to console, and moves are read from console.
+    // An empty line stops.
+    static void playHeadless() {
+        BlockingQueue<String> moves = new LinkedBlockingQueue<>();
+
+        Play play = Play.casual15m10s(
+                game -> new Play.Frontend() {
+                    public void update(JCState state) {
+                        System.out.println(game.info().gameId() + "\n" + JCState.render(state));
+                    }
+                    public void result(Game.Result result) {
+                        if (!result.ok()) System.out.println("Failed: " + result.command() + " " + result.message());
+                    }
+                },
+                (_, _) -> Opt.of(moves.take()));
+        play.startSeek();
+
+        String line;
+        while (!(line = System.console().readLine()).isBlank()) {
+            moves.offer(line.strip());
+        }
+        play.stop();
+    }
+
 }
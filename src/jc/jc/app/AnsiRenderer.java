@@ -0,0 +1,92 @@
+package jc.app;
+
+import java.io.PrintStream;
+import java.util.function.Consumer;
+
+import jc.model.JCState;
+
+/**
+ * Renders frames to a terminal using cursor addressed ANSI output.
+ * The previous frame is kept, and only the characters which differ from it
+ * are written - typically a clock digit or two, or the squares of a move.
+ * The frame is placed at a row and column, so several renderers can share one screen.
+ */
+public final class AnsiRenderer implements Consumer<JCState> {
+
+    static final String ESC = "\u001b[";
+
+    // Unchanged characters shorter than this between two changes are rewritten
+    // instead of moving the cursor, as a cursor move costs about as much.
+    static final int minGap = 6;
+
+    private final PrintStream out;
+    private final int row;
+    private final int column;
+    private final boolean tenths;
+    private String[] previous = new String[0];
+
+    public AnsiRenderer(PrintStream out) {
+        this(out, false);
+    }
+
+    public AnsiRenderer(PrintStream out, boolean tenths) {
+        this(out, 1, 1, tenths);
+    }
+
+    public AnsiRenderer(PrintStream out, int row, int column, boolean tenths) {
+        this.out = out;
+        this.row = row;
+        this.column = column;
+        this.tenths = tenths;
+    }
+
+    @Override
+    public void accept(JCState state) {
+        draw(JCState.render(state, tenths));
+    }
+
+    public synchronized void draw(String frame) {
+        String changes = diff(frame.lines().toArray(String[]::new));
+        if (changes.isEmpty()) return;
+        out.print(changes);
+        out.flush();
+    }
+
+    public synchronized void clear() {
+        previous = new String[0];
+        out.print(ESC + "2J");
+        out.flush();
+    }
+
+    String diff(String[] lines) {
+        var sb = new StringBuilder();
+        int height = Math.max(lines.length, previous.length);
+        for (int i = 0; i < height; i++) {
+            String before = i < previous.length ? previous[i] : "";
+            String after = i < lines.length ? lines[i] : "";
+            // Pad with blanks instead of erasing to end of line,
+            // to not erase anything to the right of this frame
+            if (after.length() < before.length()) after = after + " ".repeat(before.length() - after.length());
+
+            int start = -1;
+            int end = -1;
+            for (int j = 0; j < after.length(); j++) {
+                boolean changed = j >= before.length() || before.charAt(j) != after.charAt(j);
+                if (!changed) continue;
+                if (start != -1 && j - end > minGap) {
+                    moveAndWrite(sb, i, start, after.substring(start, end + 1));
+                    start = -1;
+                }
+                if (start == -1) start = j;
+                end = j;
+            }
+            if (start != -1) moveAndWrite(sb, i, start, after.substring(start, end + 1));
+        }
+        previous = lines;
+        return sb.toString();
+    }
+
+    private void moveAndWrite(StringBuilder sb, int line, int offset, String text) {
+        sb.append(ESC).append(row + line).append(';').append(column + offset).append('H').append(text);
+    }
+}
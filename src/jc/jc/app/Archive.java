@@ -0,0 +1,385 @@
+package jc.app;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+import chariot.util.Board;
+import jc.app.Feed.*;
+import jc.model.JCState.*;
+
+/**
+ * Local append-only store of observed games, with an index of the positions they reached.
+ *
+ * The files are memory-mapped in segments of 1 GiB, so opening an archive reads nothing onto the heap,
+ * a position lookup only touches the index slots it probes and the games it finds, and the files may
+ * grow beyond the 2 GiB of a single mapping. A game which would straddle two segments is written at the
+ * start of the next one instead.
+ *
+ * <pre>
+ * games.jca     = magic game*
+ * game          = white:str whiteTitle:str black:str blackTitle:str result:str fen:str plies:int ply*
+ * ply           = lastMove:str whiteMillis:long blackMillis:long
+ * str           = length:short utf8:byte[length]
+ *
+ * positions.jci = magic capacity:int count:long unused:byte[16] slot[capacity]
+ * slot          = positionHash:long keyOffset:long postingOffset:long games:long
+ *
+ * postings.jcp  = magic (key | posting)*
+ * key           = str   (the FEN without its move counters)
+ * posting       = gameOffset:long nextPostingOffset:long   (0 for the end of the list)
+ * </pre>
+ * The index is an open addressing hash table with linear probing, with a slot per position - where a position
+ * hash of 0 is an empty slot. A slot has the key of its position, compared on lookup as two positions may have
+ * the same hash, and the list of the games which reached the position, latest game first. The table is rebuilt
+ * with twice the capacity when it is half full, leaving the keys and lists where they are.
+ */
+public final class Archive implements AutoCloseable {
+
+    static final int gamesMagic = 0x4A434131; // JCA1
+    static final int indexMagic = 0x4A434932; // JCI2
+    static final int postingsMagic = 0x4A435031; // JCP1
+    static final int indexHeader = 32;
+    static final int slotSize = 32;
+    static final int postingSize = 16;
+    static final int initialCapacity = 1 << 16;
+    static final int maxCapacity = 1 << 30;
+
+    public record Ply(String lm, long whiteMillis, long blackMillis) {}
+
+    /**
+     * @param result "1-0", "0-1", "1/2-1/2", or "*" when not known
+     */
+    public record ArchivedGame(long offset, JCUser white, JCUser black, String result, String fen, List<Ply> plies) {}
+
+    private final Path gamesFile;
+    private final Path indexFile;
+    private final Path postingsFile;
+    private final FileChannel games;
+    private final MappedSegments gamesMap;
+    private final FileChannel postings;
+    private final MappedSegments postingsMap;
+    private long postingsEnd;
+    private FileChannel index;
+    private MappedSegments indexMap;
+    private int capacity;
+    private long count;
+
+    Archive(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        gamesFile = directory.resolve("games.jca");
+        indexFile = directory.resolve("positions.jci");
+        postingsFile = directory.resolve("postings.jcp");
+
+        games = FileChannel.open(gamesFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (games.size() == 0) {
+            games.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, gamesMagic));
+        }
+        gamesMap = new MappedSegments(games, FileChannel.MapMode.READ_ONLY);
+        if (gamesMap.at(0).getInt() != gamesMagic) throw new IllegalArgumentException("Not a game archive: " + gamesFile);
+
+        postings = FileChannel.open(postingsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (postings.size() == 0) {
+            postings.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, postingsMagic));
+        }
+        postingsMap = new MappedSegments(postings, FileChannel.MapMode.READ_ONLY);
+        if (postingsMap.at(0).getInt() != postingsMagic) throw new IllegalArgumentException("Not a position index: " + postingsFile);
+        postingsEnd = postings.size();
+
+        if (!Files.exists(indexFile)) createIndex(indexFile, initialCapacity);
+        openIndex();
+    }
+
+    public static Archive open(Path directory) {
+        try {
+            return new Archive(directory);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Archives the games of the stream as their events are parsed.
+     * A game is archived when the next game starts, or when the stream is closed.
+     */
+    public Stream<Unparsed> record(Stream<Unparsed> stream) {
+        var recorder = new Recorder();
+        return stream
+            .map(unparsed -> (Unparsed) () -> {
+                FeedEvent event = unparsed.parse();
+                recorder.accept(event);
+                return event;
+            })
+            .onClose(recorder::finish);
+    }
+
+    /**
+     * Offsets of games which reached the position, regardless of move counters - latest game first, a page at a time.
+     * Only the list of the position is walked, read the games of the page with {@link #read}.
+     * @param skip the number of games before the page
+     * @param limit the most games of the page
+     */
+    public synchronized List<Long> gamesReaching(String fen, long skip, int limit) {
+        long slot = slotReaching(fen);
+        if (indexMap.getLong(slot) == 0) return List.of();
+
+        List<Long> found = new ArrayList<>((int) Math.min(limit, indexMap.getLong(slot + 3 * Long.BYTES)));
+        for (long posting = indexMap.getLong(slot + 2 * Long.BYTES); posting != 0 && found.size() < limit; posting = postingsMap.getLong(posting + Long.BYTES)) {
+            if (skip > 0) skip--;
+            else found.add(postingsMap.getLong(posting));
+        }
+        return found;
+    }
+
+    /**
+     * The number of games which reached the position, regardless of move counters
+     */
+    public synchronized long countReaching(String fen) {
+        long slot = slotReaching(fen);
+        return indexMap.getLong(slot) == 0 ? 0 : indexMap.getLong(slot + 3 * Long.BYTES);
+    }
+
+    /**
+     * The number of distinct positions
+     */
+    public synchronized long positions() {
+        return count;
+    }
+
+    /**
+     * Reads the game at the offset of the games file
+     */
+    public synchronized ArchivedGame read(long offset) {
+        ByteBuffer buffer = gamesMap.at(offset);
+        var white = new JCUser(readString(buffer), readString(buffer));
+        var black = new JCUser(readString(buffer), readString(buffer));
+        String result = readString(buffer);
+        String fen = readString(buffer);
+        int plyCount = buffer.getInt();
+        List<Ply> plies = new ArrayList<>(plyCount);
+        for (int i = 0; i < plyCount; i++) {
+            plies.add(new Ply(readString(buffer), buffer.getLong(), buffer.getLong()));
+        }
+        return new ArchivedGame(offset, white, black, result, fen, plies);
+    }
+
+    synchronized void append(GameRecord game) {
+        if (game.plies.isEmpty()) return;
+        try {
+            var bytes = new ByteArrayOutputStream(64 + game.plies.size() * 24);
+            var out = new DataOutputStream(bytes);
+            writeString(out, game.white.name());
+            writeString(out, game.white.title());
+            writeString(out, game.black.name());
+            writeString(out, game.black.title());
+            writeString(out, game.result);
+            writeString(out, game.fen);
+            out.writeInt(game.plies.size());
+            for (var ply : game.plies) {
+                writeString(out, ply.lm());
+                out.writeLong(ply.whiteMillis());
+                out.writeLong(ply.blackMillis());
+            }
+            long offset = MappedSegments.fit(games.size(), bytes.size());
+            games.write(ByteBuffer.wrap(bytes.toByteArray()), offset);
+
+            for (String key : game.positions) {
+                if ((count + 1) * 2 > capacity) growIndex();
+                insert(key, offset);
+            }
+            indexMap.putLong(Integer.BYTES * 2, count);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            indexMap.force();
+            index.close();
+            postings.close();
+            games.close();
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    // The FEN without the halfmove and fullmove counters,
+    // so the same position reached at different moves has the same key.
+    static String positionKey(String fen) {
+        int fields = 0;
+        for (int i = 0; i < fen.length(); i++) {
+            if (fen.charAt(i) == ' ' && ++fields == 4) return fen.substring(0, i);
+        }
+        return fen;
+    }
+
+    // FNV-1a, where 0 is an empty slot
+    static long positionHash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private long homeSlot(long hash) {
+        return Long.remainderUnsigned(hash ^ (hash >>> 32), capacity);
+    }
+
+    // The slot of the position, or the empty slot where it goes
+    private long slotOf(String key, long hash) {
+        for (long slot = homeSlot(hash); ; slot = (slot + 1) % capacity) {
+            long slotHash = indexMap.getLong(slotPosition(slot));
+            if (slotHash == 0) return slot;
+            if (slotHash == hash && key.equals(readString(postingsMap.at(indexMap.getLong(slotPosition(slot) + Long.BYTES))))) return slot;
+        }
+    }
+
+    private long slotReaching(String fen) {
+        String key = positionKey(Board.fromFEN(fen).toFEN());
+        return slotPosition(slotOf(key, positionHash(key)));
+    }
+
+    // The header and the slots are aligned to the segments, so no slot straddles two segments
+    private static long slotPosition(long slot) {
+        return indexHeader + slot * slotSize;
+    }
+
+    // Adds the game to the list of the position, adding the position if it is new
+    private void insert(String key, long gameOffset) throws IOException {
+        long hash = positionHash(key);
+        long slot = slotPosition(slotOf(key, hash));
+        if (indexMap.getLong(slot) == 0) {
+            indexMap.putLong(slot, hash);
+            indexMap.putLong(slot + Long.BYTES, appendKey(key));
+            count++;
+        }
+        long next = indexMap.getLong(slot + 2 * Long.BYTES);
+        indexMap.putLong(slot + 2 * Long.BYTES, appendPosting(gameOffset, next));
+        indexMap.putLong(slot + 3 * Long.BYTES, indexMap.getLong(slot + 3 * Long.BYTES) + 1);
+    }
+
+    private long appendKey(String key) throws IOException {
+        var bytes = new ByteArrayOutputStream(key.length() + Short.BYTES);
+        writeString(new DataOutputStream(bytes), key);
+        return appendPostings(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private long appendPosting(long gameOffset, long next) throws IOException {
+        return appendPostings(ByteBuffer.allocate(postingSize).putLong(gameOffset).putLong(next).flip());
+    }
+
+    private long appendPostings(ByteBuffer record) throws IOException {
+        long offset = MappedSegments.fit(postingsEnd, record.remaining());
+        postingsEnd = offset + record.remaining();
+        postings.write(record, offset);
+        return offset;
+    }
+
+    private static void createIndex(Path file, int capacity) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(indexHeader).putInt(indexMagic).putInt(capacity).putLong(0).flip());
+            // Sparse, zero filled
+            channel.write(ByteBuffer.allocate(1), slotPosition(capacity) - 1);
+        }
+    }
+
+    private void openIndex() throws IOException {
+        index = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexMap = new MappedSegments(index, FileChannel.MapMode.READ_WRITE);
+        ByteBuffer header = indexMap.at(0);
+        if (header.getInt() != indexMagic) throw new IllegalArgumentException("Not a position index: " + indexFile);
+        capacity = header.getInt();
+        count = header.getLong();
+    }
+
+    private void growIndex() throws IOException {
+        if (capacity >= maxCapacity) throw new IllegalStateException("The position index is full, " + count + " positions: " + indexFile);
+        Path grown = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Files.deleteIfExists(grown);
+        createIndex(grown, capacity * 2);
+
+        var old = indexMap;
+        int oldCapacity = capacity;
+        index.close();
+
+        try (var channel = FileChannel.open(grown, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            indexMap = new MappedSegments(channel, FileChannel.MapMode.READ_WRITE);
+            capacity = oldCapacity * 2;
+            // The positions are distinct, so a slot is moved to the first empty slot from its home slot
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                long from = slotPosition(slot);
+                long hash = old.getLong(from);
+                if (hash == 0) continue;
+                long to = homeSlot(hash);
+                while (indexMap.getLong(slotPosition(to)) != 0) to = (to + 1) % capacity;
+                for (int field = 0; field < slotSize; field += Long.BYTES) {
+                    indexMap.putLong(slotPosition(to) + field, old.getLong(from + field));
+                }
+            }
+            indexMap.putLong(Integer.BYTES * 2, count);
+            indexMap.force();
+        }
+        Files.move(grown, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        openIndex();
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class GameRecord {
+        final JCUser white;
+        final JCUser black;
+        final String fen;
+        final List<Ply> plies = new ArrayList<>();
+        final Set<String> positions = new LinkedHashSet<>();
+        String result = "*";
+
+        GameRecord(JCUser white, JCUser black, String fen) {
+            this.white = white;
+            this.black = black;
+            this.fen = fen;
+            positions.add(positionKey(fen));
+        }
+    }
+
+    // Collects the game of one stream. The feeds don't report results, so they are archived as "*".
+    final class Recorder {
+        GameRecord game = null;
+
+        synchronized void accept(FeedEvent event) {
+            switch(event) {
+                case JCNewGame(var white, var black, var board, _) -> {
+                    finish();
+                    game = new GameRecord(white.user(), black.user(), board.toFEN());
+                }
+                case JCBoardUpdate(var board, long whiteMillis, long blackMillis, var lm) -> {
+                    if (game == null || lm == null || lm.isEmpty()) return;
+                    game.plies.add(new Ply(lm, whiteMillis, blackMillis));
+                    game.positions.add(positionKey(board.toFEN()));
+                }
+                case JCTimeTick _ -> {}
+            }
+        }
+
+        synchronized void finish() {
+            if (game != null) append(game);
+            game = null;
+        }
+    }
+}
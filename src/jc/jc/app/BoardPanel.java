@@ -0,0 +1,164 @@
+package jc.app;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.*;
+
+import jc.model.JCState;
+import jc.model.JCState.*;
+
+/**
+ * Board painted square by square, with a player strip above and below.
+ *
+ * An update only repaints the squares and strips which changed - a clock tick repaints
+ * the clock of one strip, and a move repaints a few squares. Updates arriving faster than
+ * the event thread paints them are coalesced, so only the latest is painted.
+ */
+final class BoardPanel extends JComponent {
+
+    static final int square = 56;
+    static final int strip = 32;
+    static final Color light = new Color(0xF0D9B5);
+    static final Color dark = new Color(0xB58863);
+
+    // Unicode pieces, indexed by the FEN letter
+    static final String pieces = "KQRBNPkqrbnp";
+    static final String glyphs = "♔♕♖♗♘♙♚♛♜♝♞♟";
+
+    record Strip(String name, String clock) {}
+
+    /**
+     * @param squares FEN letters of the squares as drawn, from the top left, ' ' for empty
+     */
+    record View(char[] squares, Strip upper, Strip lower) {
+        static final View empty = new View(new char[64], new Strip("", ""), new Strip("", ""));
+    }
+
+    private final Font pieceFont = new Font(Font.SERIF, Font.PLAIN, square * 3 / 4);
+    private final Font stripFont = new Font(Font.SANS_SERIF, Font.PLAIN, strip / 2);
+    private final AtomicReference<View> pending = new AtomicReference<>();
+    private View view = View.empty;
+
+    BoardPanel() {
+        setPreferredSize(new Dimension(8 * square, 8 * square + 2 * strip));
+        setOpaque(true);
+    }
+
+    /**
+     * May be called from any thread
+     */
+    void update(JCState state) {
+        View next = view(state);
+        if (pending.getAndSet(next) == null) {
+            SwingUtilities.invokeLater(this::apply);
+        }
+    }
+
+    private void apply() {
+        View next = pending.getAndSet(null);
+        if (next == null) return;
+        View previous = view;
+        view = next;
+
+        for (int i = 0; i < 64; i++) {
+            if (previous.squares[i] != next.squares[i]) repaint(squareBounds(i));
+        }
+        repaintStrip(previous.upper, next.upper, 0);
+        repaintStrip(previous.lower, next.lower, strip + 8 * square);
+    }
+
+    // Usually only the clock has changed, which is drawn in the right half of the strip
+    private void repaintStrip(Strip previous, Strip next, int y) {
+        if (!previous.name().equals(next.name())) {
+            repaint(0, y, 8 * square, strip);
+        } else if (!previous.clock().equals(next.clock())) {
+            repaint(4 * square, y, 4 * square, strip);
+        }
+    }
+
+    static View view(JCState state) {
+        Basic basic = switch(state) {
+            case JCState.None _ -> null;
+            case Basic b -> b;
+            case WithMove(Basic b, _) -> b;
+        };
+        if (basic == null) return View.empty;
+
+        char[] squares = new char[64];
+        Arrays.fill(squares, ' ');
+        String placement = basic.board().toFEN();
+        int rank = 0;
+        int file = 0;
+        for (int i = 0; i < placement.length(); i++) {
+            char c = placement.charAt(i);
+            if (c == ' ') break;
+            if (c == '/') {
+                rank++;
+                file = 0;
+            } else if (Character.isDigit(c)) {
+                file += c - '0';
+            } else if (rank < 8 && file < 8) {
+                int index = basic.flipped() ? 63 - (rank * 8 + file) : rank * 8 + file;
+                squares[index] = c;
+                file++;
+            }
+        }
+
+        boolean whiteToMove = basic.board().whiteToMove();
+        var white = new Strip(name(basic.white()), JCState.formatTime(basic.whiteTime()) + (whiteToMove ? " *" : ""));
+        var black = new Strip(name(basic.black()), JCState.formatTime(basic.blackTime()) + (whiteToMove ? "" : " *"));
+        return basic.flipped()
+            ? new View(squares, white, black)
+            : new View(squares, black, white);
+    }
+
+    static String name(JCPlayerAndClock player) {
+        var user = player.info().user();
+        return user.title().isEmpty() ? user.name() : user.title() + " " + user.name();
+    }
+
+    static Rectangle squareBounds(int index) {
+        return new Rectangle((index % 8) * square, strip + (index / 8) * square, square, square);
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        var g = (Graphics2D) graphics;
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(getSize());
+        View current = view;
+
+        if (clip.intersects(0, 0, 8 * square, strip)) paintStrip(g, current.upper, 0);
+        if (clip.intersects(0, strip + 8 * square, 8 * square, strip)) paintStrip(g, current.lower, strip + 8 * square);
+
+        g.setFont(pieceFont);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int i = 0; i < 64; i++) {
+            Rectangle bounds = squareBounds(i);
+            if (!clip.intersects(bounds)) continue;
+            g.setColor(((i / 8) + (i % 8)) % 2 == 0 ? light : dark);
+            g.fill(bounds);
+            int piece = pieces.indexOf(current.squares[i]);
+            if (piece < 0) continue;
+            String glyph = glyphs.substring(piece, piece + 1);
+            g.setColor(Color.BLACK);
+            g.drawString(glyph,
+                    bounds.x + (square - metrics.stringWidth(glyph)) / 2,
+                    bounds.y + (square - metrics.getHeight()) / 2 + metrics.getAscent());
+        }
+    }
+
+    private void paintStrip(Graphics2D g, Strip content, int y) {
+        g.setColor(getBackground() == null ? Color.WHITE : getBackground());
+        g.fillRect(0, y, 8 * square, strip);
+        g.setColor(Color.BLACK);
+        g.setFont(stripFont);
+        FontMetrics metrics = g.getFontMetrics();
+        int baseline = y + (strip - metrics.getHeight()) / 2 + metrics.getAscent();
+        g.drawString(content.name(), 8, baseline);
+        g.drawString(content.clock(), 8 * square - 8 - metrics.stringWidth(content.clock()), baseline);
+    }
+}
@@ -0,0 +1,125 @@
+package jc.app;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import jc.model.JCState;
+
+/**
+ * Serves the states of one feed to any number of local viewers over TCP,
+ * i.e {@code nc localhost 7878} on each screen of a wall.
+ *
+ * The upstream feed is consumed once. Each state is rendered and encoded once,
+ * and the same frame bytes are handed to every subscriber. Each subscriber is
+ * written by a virtual thread of its own from a small queue of frames - a subscriber
+ * which can't keep up fills its queue and is disconnected, so it never stalls the feed
+ * or the other subscribers.
+ */
+public final class Broadcast implements Consumer<JCState> {
+
+    static final byte[] clearScreen = (AnsiRenderer.ESC + "H" + AnsiRenderer.ESC + "2J").getBytes(StandardCharsets.UTF_8);
+
+    // Frames a subscriber may lag behind before it is disconnected
+    static final int maxPending = 8;
+
+    private final ServerSocket server;
+    private final boolean tenths;
+    private final Supervisor scope = new Supervisor("jc-broadcast");
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private volatile byte[] latest = null;
+
+    private final class Subscriber {
+        final Socket socket;
+        final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(maxPending);
+
+        Subscriber(Socket socket) {
+            this.socket = socket;
+        }
+
+        void send(byte[] frame) {
+            if (!frames.offer(frame)) close();
+        }
+
+        void run() {
+            try (socket) {
+                var out = new BufferedOutputStream(socket.getOutputStream());
+                while(true) {
+                    byte[] frame = frames.take();
+                    // Skip to the newest frame if more have arrived meanwhile
+                    for (byte[] next; (next = frames.poll()) != null;) frame = next;
+                    out.write(clearScreen);
+                    out.write(frame);
+                    out.flush();
+                }
+            } catch(IOException | InterruptedException e) {
+                // Disconnected
+            } finally {
+                subscribers.remove(this);
+            }
+        }
+
+        void close() {
+            subscribers.remove(this);
+            try {
+                socket.close();
+            } catch(IOException ioe) {
+                // Already closed
+            }
+        }
+    }
+
+    Broadcast(ServerSocket server, boolean tenths) {
+        this.server = server;
+        this.tenths = tenths;
+        scope.own(() -> subscribers.forEach(Subscriber::close));
+        scope.own(server);
+    }
+
+    /**
+     * Starts accepting subscribers on the port
+     */
+    public static Broadcast start(int port, boolean tenths) throws IOException {
+        var broadcast = new Broadcast(new ServerSocket(port), tenths);
+        broadcast.scope.submit(broadcast::acceptLoop);
+        return broadcast;
+    }
+
+    @Override
+    public void accept(JCState state) {
+        byte[] frame = (JCState.render(state, tenths) + "\n").getBytes(StandardCharsets.UTF_8);
+        latest = frame;
+        for (var subscriber : subscribers) subscriber.send(frame);
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public int subscribers() {
+        return subscribers.size();
+    }
+
+    public void stop() {
+        scope.close();
+    }
+
+    private void acceptLoop() {
+        while(!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+                socket.setTcpNoDelay(true);
+            } catch(IOException ioe) {
+                break;
+            }
+            var subscriber = new Subscriber(socket);
+            subscribers.add(subscriber);
+            if (latest instanceof byte[] frame) subscriber.send(frame);
+            scope.submit(subscriber::run);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package jc.app;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.function.Function;
+
+/**
+ * Bounded event queue which never silently drops structural events.
+ *
+ * Events with a coalesce key (ticks, board updates) replace a pending event
+ * with the same key, as long as no structural event (new game etc) is queued
+ * after it - so a slow consumer gets fewer, but never wrong, frames.
+ * Events without a coalesce key are structural, and {@link #put(Object)} waits
+ * for room for them.
+ */
+public final class EventQueue<E> {
+
+    public record Stats(int depth, long coalesced, long dropped) {
+        public Stats plus(Stats other) {
+            return new Stats(depth + other.depth, coalesced + other.coalesced, dropped + other.dropped);
+        }
+    }
+
+    /**
+     * @param nanos {@link System#nanoTime()} when the event was added
+     */
+    public record Timed<E>(E event, long nanos) {}
+
+    /**
+     * An event which may replace a pending event of the same class, i.e a board update or a tick.
+     * Other events, i.e a new game, are structural.
+     */
+    public interface Coalesced {}
+
+    /**
+     * The coalesce key of the {@link Coalesced} events, their class
+     */
+    public static Object byClass(Object event) {
+        return event instanceof Coalesced ? event.getClass() : null;
+    }
+
+    private final int capacity;
+    private final Function<? super E, Object> coalesceKey;
+    private final ArrayDeque<Timed<E>> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param coalesceKey key of events which can be coalesced, or null for structural events
+     */
+    public EventQueue(int capacity, Function<? super E, Object> coalesceKey) {
+        this.capacity = capacity;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Adds the event, waiting for room if it couldn't be coalesced and the queue is full.
+     */
+    public void put(E event) throws InterruptedException {
+        put(event, System.nanoTime());
+    }
+
+    /**
+     * Adds the event as {@link #put(Object)}, keeping the time it was first added to an earlier stage
+     * @param nanos {@link System#nanoTime()} when the event arrived
+     */
+    public void put(E event, long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (coalesce(event, nanos)) return;
+            while (queue.size() >= capacity) notFull.await();
+            queue.addLast(new Timed<>(event, nanos));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the event without waiting.
+     * @return false if the event couldn't be coalesced and the queue is full, in which case it is counted as dropped
+     */
+    public boolean offer(E event) {
+        lock.lock();
+        try {
+            long nanos = System.nanoTime();
+            if (coalesce(event, nanos)) return true;
+            if (queue.size() >= capacity) {
+                dropped.increment();
+                return false;
+            }
+            queue.addLast(new Timed<>(event, nanos));
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E take() throws InterruptedException {
+        return takeTimed().event();
+    }
+
+    public Timed<E> takeTimed() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) notEmpty.await();
+            Timed<E> timed = queue.removeFirst();
+            notFull.signal();
+            return timed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            E event = queue.removeFirst().event();
+            notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(queue.size(), coalesced.sum(), dropped.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Replaces the latest pending event with the same key, searching back to the latest structural event.
+    // The replacing event is placed last, keeping it after anything it was queued after.
+    private boolean coalesce(E event, long nanos) {
+        Object key = coalesceKey.apply(event);
+        if (key == null) return false;
+
+        var iterator = queue.descendingIterator();
+        while (iterator.hasNext()) {
+            Object pendingKey = coalesceKey.apply(iterator.next().event());
+            if (pendingKey == null) return false;
+            if (pendingKey.equals(key)) {
+                iterator.remove();
+                queue.addLast(new Timed<>(event, nanos));
+                coalesced.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+}
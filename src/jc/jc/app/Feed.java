@@ -3,9 +3,11 @@ package jc.app;
 import jc.model.JCState;
 import jc.model.JCState.*;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -15,106 +17,327 @@ import chariot.model.MoveInfo.*;
 import chariot.model.TVFeedEvent.*;
 import chariot.util.Board;
 import chariot.model.Enums.Color;
+import jc.metrics.Metrics;
 
 public interface Feed {
 
     static Client client = Client.basic();
 
     static Feed featuredGame(Consumer<JCState> consumer) {
-        return featuredGame(consumer, client.games().tvFeed().stream());
+        return watch("featured", consumer, streamFromFeed(client.games().tvFeed().stream()));
     }
 
     static Feed featuredGame(Consumer<JCState> consumer, Enums.Channel channel) {
-        return featuredGame(consumer, client.games().tvFeed(channel).stream());
+        return watch(channel.name(), consumer, streamFromFeed(client.games().tvFeed(channel).stream()));
     }
 
     static Feed featuredGame(Consumer<JCState> consumer, Stream<TVFeedEvent> tvFeed) {
+        return watch("tv", consumer, streamFromFeed(tvFeed));
+    }
+
+    /**
+     * Watches a synthetic feed as {@link #featuredGame(Consumer, Stream)}, with its events passed through
+     * the operator as they are parsed
+     */
+    static Feed featuredGame(Consumer<JCState> consumer, Stream<TVFeedEvent> tvFeed, UnaryOperator<Stream<Unparsed>> through) {
+        return watch("tv", consumer, through.apply(streamFromFeed(tvFeed)));
+    }
+
+    static Feed gameId(String gameId, Consumer<JCState> consumer) {
+        return watch(gameId, consumer, streamFromGameId(gameId, ""));
+    }
+
+    /**
+     * Watches a source, a TV channel name or a game id (empty for the featured game)
+     */
+    static Feed source(String source, Consumer<JCState> consumer) {
+        return watch(source.isEmpty() ? "featured" : source, consumer, streamFromSource(source));
+    }
+
+    /**
+     * Watches a source, a TV channel name or a game id (empty for the featured game), with its events passed
+     * through the operator as they are parsed - i.e {@link FeedLog#record}, {@link Archive#record} or {@link LineOutput#record}
+     */
+    static Feed source(String source, UnaryOperator<Stream<Unparsed>> through, Consumer<JCState> consumer) {
+        return watch(source.isEmpty() ? "featured" : source, consumer, through.apply(streamFromSource(source)));
+    }
+
+    /**
+     * Watches a source, a TV channel name or a game id (empty for the featured game),
+     * appending its events to a log which can be replayed with {@link #replay}
+     */
+    static Feed recording(Path log, String source, Consumer<JCState> consumer) {
+        return watch(source.isEmpty() ? "featured" : source, consumer, FeedLog.record(log, streamFromSource(source)));
+    }
+
+    /**
+     * Watches a source as {@link #recording}, also storing its games in the archive
+     */
+    static Feed recording(Path log, Archive archive, String source, Consumer<JCState> consumer) {
+        return watch(source.isEmpty() ? "featured" : source, consumer, archive.record(FeedLog.record(log, streamFromSource(source))));
+    }
+
+    /**
+     * Replays a log recorded with {@link #recording}
+     * @param realtime true to replay at the recorded pace, false to replay as fast as possible
+     */
+    static Feed replay(Path log, boolean realtime, Consumer<JCState> consumer) {
+        return watch(log.getFileName().toString(), consumer, FeedLog.replay(log, realtime));
+    }
+
+    /**
+     * Replays a log as {@link #replay(Path, boolean, Consumer)}, with its events passed through the operator as they are parsed
+     */
+    static Feed replay(Path log, boolean realtime, UnaryOperator<Stream<Unparsed>> through, Consumer<JCState> consumer) {
+        return watch(log.getFileName().toString(), consumer, through.apply(FeedLog.replay(log, realtime)));
+    }
+
+    /**
+     * Watches many sources at once, where a source is either a TV channel name or a game id.
+     */
+    static Feed all(List<String> sources, BiConsumer<String, JCState> consumer) {
+        return all(sources, (_, stream) -> stream, consumer);
+    }
+
+    /**
+     * Watches many sources at once, storing their games in the archive
+     */
+    static Feed all(List<String> sources, Archive archive, BiConsumer<String, JCState> consumer) {
+        return all(sources, (_, stream) -> archive.record(stream), consumer);
+    }
+
+    /**
+     * Watches a source, a TV channel name or a game id (empty for the featured game),
+     * storing its games in the archive
+     */
+    static Feed archiving(Archive archive, String source, Consumer<JCState> consumer) {
+        return watch(source.isEmpty() ? "featured" : source, consumer, archive.record(streamFromSource(source)));
+    }
+
+    /**
+     * Watches many sources at once, with the events of each source passed through the operator as they are parsed
+     */
+    static Feed all(List<String> sources, BiFunction<String, Stream<Unparsed>, Stream<Unparsed>> through, BiConsumer<String, JCState> consumer) {
+        List<Feed> feeds = sources.stream()
+            .map(source -> watch(source, state -> consumer.accept(source, state), through.apply(source, streamFromSource(source))))
+            .toList();
+        return new Feeds(feeds);
+    }
+
+    private static Stream<Unparsed> streamFromSource(String source) {
+        if (source.isEmpty()) return streamFromFeed(client.games().tvFeed().stream());
+        return Arrays.stream(Enums.Channel.values())
+            .filter(channel -> channel.name().equals(source))
+            .findFirst()
+            .map(channel -> streamFromFeed(client.games().tvFeed(channel).stream()))
+            .orElseGet(() -> streamFromGameId(source, ""));
+    }
+
+    private static Stream<Unparsed> streamFromFeed(Stream<TVFeedEvent> tvFeed) {
         // Eternal stream of games
-        Stream<FeedEvent> streamFromFeed = tvFeed
-            .map(tvFeedEvent -> switch(tvFeedEvent) {
+        Stream<Unparsed> streamFromFeed = tvFeed
+            .map(tvFeedEvent -> () -> switch(tvFeedEvent) {
                 case Fen(String fen, var lm, var wc, var bc)
-                    -> new JCBoardUpdate(Board.fromFEN(fen), wc, bc, lm);
+                    -> new JCBoardUpdate(FenCache.board(fen), wc.toMillis(), bc.toMillis(), lm);
                 case Featured(_, Color orientation, var players, String fen)
                     -> new JCNewGame(players.stream().map(Feed::fromPlayerInfo).toList(),
-                            Board.fromFEN(fen),
+                            FenCache.board(fen),
                             orientation != Color.white);
             });
 
-        return watch(consumer, streamFromFeed);
+        return streamFromFeed;
     }
 
-    static Feed gameId(String gameId, Consumer<JCState> consumer) {
-        return watch(consumer, streamFromGameId(gameId, ""));
-    }
-
-    private static Stream<FeedEvent> streamFromGameId(String gameId, String userId) {
+    private static Stream<Unparsed> streamFromGameId(String gameId, String userId) {
         // Single game stream
-        Stream<FeedEvent> streamFromGameId = client.games().moveInfosByGameId(gameId).stream()
-            .map(moveInfo -> switch(moveInfo) {
+        Stream<Unparsed> streamFromGameId = client.games().moveInfosByGameId(gameId).stream()
+            .map(moveInfo -> () -> switch(moveInfo) {
                 case Move(String fen, var lm, int wc, int bc)
-                    -> new JCBoardUpdate(Board.fromFEN(fen), Duration.ofSeconds(wc), Duration.ofSeconds(bc), lm);
+                    -> new JCBoardUpdate(FenCache.board(fen), wc * 1000L, bc * 1000L, lm);
                 case GameSummary game
                     -> new JCNewGame(fromPlayer(Color.white, game.players().white()), fromPlayer(Color.black, game.players().black()),
-                            Board.fromFEN(game.fen()),
+                            FenCache.board(game.fen()),
                             game.players().black().name().toLowerCase().equals(userId));
             });
 
         return streamFromGameId;
     }
 
-    private static Feed watch(Consumer<JCState> consumer, Stream<FeedEvent> stream) {
-        BlockingQueue<FeedEvent> eventQueue = new ArrayBlockingQueue<>(1024);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        ScheduledExecutorService timeTickerExecutor = Executors.newSingleThreadScheduledExecutor();
-        executorService.submit(() -> stream.forEach(eventQueue::offer));
+    // The feed runs as four stages, each a virtual thread of the feed's scope:
+    // read (source -> raw queue), parse (raw queue -> event queue), fold (event queue -> render queue)
+    // and render (render queue -> consumer). A slow network read, parse or consumer stalls only its own stage.
+    // The feed's scope closes the stream and the tick registration, and joins the stages when the feed is stopped.
+    private static Feed watch(String name, Consumer<JCState> consumer, Stream<Unparsed> stream) {
+        Supervisor scope = new Supervisor("jc-" + name);
+        // Raw events are never coalesced, the reader waits when the parser falls this far behind
+        EventQueue<Unparsed> rawQueue = new EventQueue<>(256, _ -> null);
+        EventQueue<FeedEvent> eventQueue = new EventQueue<>(1024, EventQueue::byClass);
+        // Only the latest state is rendered
+        EventQueue<JCState> renderQueue = new EventQueue<>(1, _ -> JCState.class);
+        Metrics.Pipeline metrics = scope.own(Metrics.register(name,
+                    () -> rawQueue.depth() + eventQueue.depth() + renderQueue.depth(),
+                    () -> eventQueue.stats().coalesced() + renderQueue.stats().coalesced()));
+        scope.own(stream);
+        AtomicBoolean finished = new AtomicBoolean();
+        LiveState live = new LiveState();
 
-        timeTickerExecutor.scheduleAtFixedRate(
-                () -> eventQueue.offer(new JCTimeTick()),
-                0, 1, TimeUnit.SECONDS);
+        scope.submit(() -> {
+            try {
+                for (var iterator = stream.iterator(); iterator.hasNext();) {
+                    rawQueue.put(iterator.next());
+                }
+            } catch(InterruptedException ie) {
+                // Stopped
+            } finally {
+                // Also when the read fails, so a dead feed isn't ticked
+                finished.set(true);
+            }
+        });
 
-        executorService.submit(() -> {
-            JCState currentState = new JCState.None();
+        scope.submit(() -> {
+            try {
+                while(true) {
+                    var timed = rawQueue.takeTimed();
+                    FeedEvent event = timed.event().parse();
+                    switch(event) {
+                        case JCNewGame(var white, var black, var board, var flipped) -> live.recordNewGame(white, black, board, flipped);
+                        case JCBoardUpdate(var board, long whiteMillis, long blackMillis, var lm)
+                            -> live.recordMove(board, whiteMillis, blackMillis, lm);
+                        case JCTimeTick _ -> {}
+                    }
+                    eventQueue.put(event, timed.nanos());
+                }
+            } catch(InterruptedException ie) {
+                // Stopped
+            }
+        });
+
+        var timeTick = Ticker.shared.register(
+                () -> !finished.get() && !(live.state() instanceof JCState.None),
+                () -> live.state().timeScramble(),
+                () -> { if (!eventQueue.offer(new JCTimeTick())) metrics.dropped(); });
+        scope.own(timeTick::cancel);
+
+        scope.submit(() -> {
             while(true) {
-                final FeedEvent event;
+                final EventQueue.Timed<FeedEvent> timed;
                 try {
-                    event = eventQueue.take();
+                    timed = eventQueue.takeTimed();
                 } catch(InterruptedException ie) {
                     // Ok, let's exit
                     break;
                 }
 
-                currentState = switch(event) {
-                    case JCNewGame(var white, var black, var board, var flipped) -> JCState.of(white, black, board, flipped);
-                    case JCBoardUpdate(Board board, Duration whiteTime, Duration blackTime, var lm) -> currentState
-                        .withBoard(board)
-                        .withWhiteTime(whiteTime)
-                        .withBlackTime(blackTime)
-                        .withLastMove(lm);
-                    case JCTimeTick() -> currentState.withOneSecondTick();
+                boolean shown = switch(timed.event()) {
+                    case JCNewGame(var white, var black, var board, var flipped) -> live.newGame(white, black, board, flipped);
+                    case JCBoardUpdate(Board board, long whiteMillis, long blackMillis, var lm)
+                        -> live.update(board, whiteMillis, blackMillis, lm, timed.nanos());
+                    case JCTimeTick() -> live.redraw();
                 };
+                if (!shown) continue;
+                try {
+                    renderQueue.put(live.state(), timed.nanos());
+                } catch(InterruptedException ie) {
+                    break;
+                }
+            }
+        });
 
-                consumer.accept(currentState);
+        scope.submit(() -> {
+            try {
+                while(true) {
+                    var timed = renderQueue.takeTimed();
+                    long start = System.nanoTime();
+                    consumer.accept(timed.event());
+                    Metrics.rendered(System.nanoTime() - start);
+                    metrics.delivered(timed.nanos());
+                }
+            } catch(InterruptedException ie) {
+                // Stopped
             }
         });
-        return new FeedHandle(executorService, timeTickerExecutor, stream);
+
+        IntConsumer step = plies -> renderQueue.offer(live.step(plies));
+        return new FeedHandle(scope, rawQueue, eventQueue, renderQueue, step);
+    }
+
+    record FeedHandle(Supervisor scope,
+            EventQueue<Unparsed> rawQueue,
+            EventQueue<FeedEvent> eventQueue,
+            EventQueue<JCState> renderQueue,
+            IntConsumer step) implements Feed {
+        @Override
+        public void stop() {
+            scope.close();
+        }
+
+        @Override
+        public void step(int plies) {
+            step.accept(plies);
+        }
+
+        @Override
+        public Stats stats() {
+            return new Stats(rawQueue.stats(), eventQueue.stats(), renderQueue.stats());
+        }
     }
 
-    record FeedHandle(
-            ExecutorService executorService,
-            ScheduledExecutorService timeTickerExecutor,
-            Stream<FeedEvent> stream) implements Feed {
+    record Feeds(List<Feed> feeds) implements Feed {
         @Override
         public void stop() {
-            stream.close();
-            if (!timeTickerExecutor.isShutdown()) timeTickerExecutor.shutdownNow();
-            if (!executorService.isShutdown()) executorService.shutdownNow();
+            feeds.forEach(Feed::stop);
+        }
+
+        @Override
+        public void step(int plies) {
+            feeds.forEach(feed -> feed.step(plies));
+        }
+
+        @Override
+        public Stats stats() {
+            return feeds.stream()
+                .map(Feed::stats)
+                .reduce(Stats.empty, Stats::plus);
         }
     }
 
     void stop();
 
+    /**
+     * Steps back (negative) or forward through the history of the current game. The state at that ply
+     * is shown instead of the live state, until stepped forward to the latest ply again.
+     */
+    void step(int plies);
+
+    /**
+     * Queue depth, and number of coalesced and dropped events, of each stage of the feed
+     */
+    Stats stats();
+
+    /**
+     * @param raw events read from the source, waiting to be parsed
+     * @param events parsed events, waiting to be folded
+     * @param render states waiting to be rendered
+     */
+    record Stats(EventQueue.Stats raw, EventQueue.Stats events, EventQueue.Stats render) {
+        static final Stats empty = new Stats(new EventQueue.Stats(0, 0, 0), new EventQueue.Stats(0, 0, 0), new EventQueue.Stats(0, 0, 0));
+
+        public Stats plus(Stats other) {
+            return new Stats(raw.plus(other.raw), events.plus(other.events), render.plus(other.render));
+        }
+    }
+
     sealed interface FeedEvent {}
 
+    /**
+     * An event as read from its source, parsed into a {@link FeedEvent} by the parse stage of the feed,
+     * so parsing positions never holds up reading the source.
+     */
+    @FunctionalInterface
+    interface Unparsed {
+        FeedEvent parse();
+    }
+
     record PlayerColors(JCPlayerInfo white, JCPlayerInfo black) {}
 
     record JCNewGame(JCPlayerInfo white, JCPlayerInfo black, Board board, boolean flipped) implements FeedEvent {
@@ -129,8 +352,8 @@ public interface Feed {
             this(playerColors.white, playerColors.black, board, flipped);
         }
     };
-    record JCBoardUpdate(Board board, Duration whiteTime, Duration blackTime, String lm) implements FeedEvent {};
-    record JCTimeTick() implements FeedEvent {};
+    record JCBoardUpdate(Board board, long whiteMillis, long blackMillis, String lm) implements FeedEvent, EventQueue.Coalesced {};
+    record JCTimeTick() implements FeedEvent, EventQueue.Coalesced {};
 
     private static JCPlayerInfo fromPlayerInfo(PlayerInfo playerInfo) {
         JCUser user = new JCUser(playerInfo.user().name(), playerInfo.user().titleOpt().orElse(""));
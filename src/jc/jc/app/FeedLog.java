@@ -0,0 +1,283 @@
+package jc.app;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.*;
+
+import chariot.model.Enums.Color;
+import jc.app.Feed.*;
+import jc.model.JCState.*;
+
+/**
+ * Compact append-only binary log of feed events, for reproducing sessions offline.
+ *
+ * <pre>
+ * log     = magic record*
+ * record  = delayMillis:int tag:byte (newGame | update)
+ * newGame = player player fen:str flipped:byte
+ * player  = name:str title:str timeMillis:long
+ * update  = fen:str whiteMillis:long blackMillis:long lastMove:str
+ * str     = length:short utf8:byte[length]   (length 0xFFFF for null, i.e no last move)
+ * </pre>
+ * The log is read memory-mapped in segments of 1 GiB, and a record never straddles two segments.
+ * The rest of a segment is skipped when it is too short for a record, or when the record there has tag 0 -
+ * the writer leaves the bytes before a record which wouldn't fit zero. A record cut short, i.e when the
+ * recording process was killed while writing it, ends the log.
+ */
+public interface FeedLog {
+
+    int magic = 0x4A434C31; // JCL1
+    byte skip = 0;
+    byte newGame = 1;
+    byte update = 2;
+    int nullString = 0xFFFF;
+
+    /**
+     * Appends the events of the stream to the log, as they are parsed,
+     * with the delays between them as they were read from the source
+     */
+    static Stream<Unparsed> record(Path log, Stream<Unparsed> stream) {
+        final Writer writer;
+        try {
+            writer = new Writer(log);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return stream
+            .map(unparsed -> {
+                // Mapped as read, so a slow parse stage doesn't show up as delays in the log
+                long readNanos = System.nanoTime();
+                return (Unparsed) () -> {
+                    FeedEvent event = unparsed.parse();
+                    writer.append(event, readNanos);
+                    return event;
+                };
+            })
+            .onClose(writer::close);
+    }
+
+    /**
+     * Reads the events of the log
+     * @param realtime true to delay the events as when recorded, false to read them as fast as possible
+     */
+    static Stream<Unparsed> replay(Path log, boolean realtime) {
+        final FileChannel channel;
+        final Reader reader;
+        try {
+            channel = FileChannel.open(log, StandardOpenOption.READ);
+            if (channel.size() < Integer.BYTES) {
+                channel.close();
+                throw new IllegalArgumentException("Not a feed log: " + log);
+            }
+            reader = new Reader(new MappedSegments(channel, FileChannel.MapMode.READ_ONLY), channel.size(), realtime);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        if (reader.segments.at(0).getInt() != magic) {
+            try {
+                channel.close();
+            } catch(IOException ioe) {
+                // Not a log anyway
+            }
+            throw new IllegalArgumentException("Not a feed log: " + log);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                try {
+                    channel.close();
+                } catch(IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+    }
+
+    final class Writer {
+        final OutputStream out;
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        final DataOutputStream data = new DataOutputStream(record);
+        long position;
+        long previous = System.nanoTime();
+
+        Writer(Path log) throws IOException {
+            position = Files.exists(log) ? Files.size(log) : 0;
+            out = new BufferedOutputStream(Files.newOutputStream(log, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            if (position == 0) {
+                out.write(ByteBuffer.allocate(Integer.BYTES).putInt(magic).array());
+                position = Integer.BYTES;
+            }
+        }
+
+        /**
+         * @param readNanos {@link System#nanoTime()} when the event was read from its source
+         */
+        synchronized void append(FeedEvent event, long readNanos) {
+            try {
+                record.reset();
+                switch(event) {
+                    case JCNewGame(var white, var black, var board, var flipped) -> {
+                        writeDelay(readNanos);
+                        data.writeByte(newGame);
+                        writePlayer(white);
+                        writePlayer(black);
+                        writeString(board.toFEN());
+                        data.writeBoolean(flipped);
+                    }
+                    case JCBoardUpdate(var board, long whiteMillis, long blackMillis, var lm) -> {
+                        writeDelay(readNanos);
+                        data.writeByte(update);
+                        writeString(board.toFEN());
+                        data.writeLong(whiteMillis);
+                        data.writeLong(blackMillis);
+                        writeString(lm);
+                    }
+                    case JCTimeTick _ -> { return; }
+                }
+                // Zeros up to the next segment, if the record would straddle two
+                long at = MappedSegments.fit(position, record.size());
+                if (at > position) out.write(new byte[(int) (at - position)]);
+                record.writeTo(out);
+                position = at + record.size();
+                out.flush();
+            } catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+
+        synchronized void close() {
+            try {
+                out.close();
+            } catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+
+        void writeDelay(long readNanos) throws IOException {
+            data.writeInt((int) Math.min(Integer.MAX_VALUE, Duration.ofNanos(Math.max(0, readNanos - previous)).toMillis()));
+            previous = readNanos;
+        }
+
+        void writePlayer(JCPlayerInfo player) throws IOException {
+            writeString(player.user().name());
+            writeString(player.user().title());
+            data.writeLong(player.time().toMillis());
+        }
+
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                data.writeShort(nullString);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            data.writeShort(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    final class Reader implements Iterator<Unparsed> {
+        static final int recordHeader = Integer.BYTES + 1;
+
+        final MappedSegments segments;
+        final long size;
+        final boolean realtime;
+        long position = Integer.BYTES;
+        ByteBuffer buffer;
+        Unparsed pending = null;
+        int pendingDelay = 0;
+        boolean stopped = false;
+
+        Reader(MappedSegments segments, long size, boolean realtime) {
+            this.segments = segments;
+            this.size = size;
+            this.realtime = realtime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending == null && !stopped) pending = read();
+            return pending != null;
+        }
+
+        @Override
+        public Unparsed next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (realtime && pendingDelay > 0) {
+                try {
+                    Thread.sleep(pendingDelay);
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    stopped = true;
+                }
+            }
+            Unparsed unparsed = pending;
+            pending = null;
+            return unparsed;
+        }
+
+        // The next record, or null at the end of the log
+        Unparsed read() {
+            while (position < size) {
+                long segmentEnd = ((position >>> MappedSegments.segmentBits) + 1) << MappedSegments.segmentBits;
+                if (segmentEnd - position < recordHeader) {
+                    position = segmentEnd;
+                    continue;
+                }
+                buffer = segments.at(position);
+                int start = buffer.position();
+                try {
+                    pendingDelay = buffer.getInt();
+                    byte tag = buffer.get();
+                    if (tag == skip) {
+                        position = segmentEnd;
+                        continue;
+                    }
+                    Unparsed unparsed = record(tag);
+                    position += buffer.position() - start;
+                    return unparsed;
+                } catch(BufferUnderflowException bue) {
+                    // Cut short, the end of the log
+                    position = size;
+                }
+            }
+            return null;
+        }
+
+        // The record is read here, its position is parsed by the parse stage of the feed
+        Unparsed record(byte tag) {
+            return switch(tag) {
+                case newGame -> {
+                    var white = readPlayer(Color.white);
+                    var black = readPlayer(Color.black);
+                    String fen = readString();
+                    boolean flipped = buffer.get() != 0;
+                    yield () -> new JCNewGame(white, black, FenCache.board(fen), flipped);
+                }
+                case update -> {
+                    String fen = readString();
+                    long whiteMillis = buffer.getLong();
+                    long blackMillis = buffer.getLong();
+                    String lm = readString();
+                    yield () -> new JCBoardUpdate(FenCache.board(fen), whiteMillis, blackMillis, lm);
+                }
+                default -> throw new IllegalStateException("Unknown record " + tag + " at " + position);
+            };
+        }
+
+        JCPlayerInfo readPlayer(Color color) {
+            var user = new JCUser(readString(), readString());
+            return new JCPlayerInfo(user, Duration.ofMillis(buffer.getLong()), color);
+        }
+
+        String readString() {
+            int length = Short.toUnsignedInt(buffer.getShort());
+            if (length == nullString) return null;
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
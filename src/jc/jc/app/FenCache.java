@@ -0,0 +1,28 @@
+package jc.app;
+
+import chariot.util.Board;
+import jc.metrics.Metrics;
+import jc.model.LruCache;
+
+/**
+ * Bounded LRU cache of parsed boards, keyed by FEN.
+ * The same positions arrive again and again - a game watched by several feeds,
+ * the catch-up position of a game id stream, a replayed log - and are parsed once.
+ */
+final class FenCache {
+
+    static final int capacity = 4096;
+
+    private static final LruCache<String, Board> cache = new LruCache<>(capacity);
+
+    static Board board(String fen) {
+        return cache.get(fen, FenCache::parse);
+    }
+
+    private static Board parse(String fen) {
+        long start = System.nanoTime();
+        Board board = Board.fromFEN(fen);
+        Metrics.parsed(fen, System.nanoTime() - start);
+        return board;
+    }
+}
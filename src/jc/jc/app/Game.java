@@ -0,0 +1,375 @@
+package jc.app;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.*;
+import java.util.stream.Stream;
+
+import chariot.ClientAuth;
+import chariot.model.*;
+import chariot.model.Enums.Color;
+import chariot.util.Board;
+import jc.app.Play.*;
+import jc.metrics.Metrics;
+import jc.model.JCState;
+import jc.model.JCState.*;
+
+/**
+ * Headless game loop of a single game.
+ * The stream reader and the state loop run as virtual threads, and when it is our turn
+ * the {@link MoveProvider} is asked for a move on a virtual thread of its own.
+ * The state is presented by a {@link Frontend}, which may be a window or nothing at all.
+ *
+ * Moves, resignations and draw offers are submitted by a worker of their own, so callers (i.e the Swing
+ * event thread) never wait for the HTTP round trip. Moves made when it isn't our turn are queued as premoves,
+ * and are submitted as soon as the opponent's move arrives.
+ *
+ * The game owns a {@link Supervisor} scope with its threads, stream and tick registration,
+ * which {@link #stop()} closes before closing the frontend.
+ */
+public final class Game {
+
+    final ClientAuth client;
+    final GameInfo info;
+    final MoveProvider moveProvider;
+    final Frontend frontend;
+    final JCUser me;
+    final Supplier<Stream<GameStateEvent>> events;
+    final MoveTracker moveTracker;
+    final EventQueue<PlayEvent> queue = new EventQueue<>(1024, EventQueue::byClass);
+    final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    final Queue<String> premoves = new ConcurrentLinkedQueue<>();
+
+    final Metrics.Pipeline metrics;
+    final Supervisor scope;
+
+    volatile Future<?> commandWorker = CompletableFuture.completedFuture(null);
+    volatile Future<?> pendingMove = CompletableFuture.completedFuture(null);
+
+    final LiveState live = new LiveState();
+    volatile boolean finished = false;
+    final AtomicBoolean stopped = new AtomicBoolean();
+    volatile Runnable onStop = () -> {};
+    String askedFen = "";
+
+    Game(ClientAuth client, GameInfo info, Function<Game, Frontend> frontends, MoveProvider moveProvider) {
+        this(client, info, me(client), () -> client.board().connectToGame(info.gameId()).stream(), frontends, moveProvider);
+    }
+
+    /**
+     * A game of the events of the stream instead of those of Lichess, i.e synthetic events for a soak test.
+     * There is no client to submit commands with, so commands fail.
+     */
+    Game(GameInfo info, JCUser me, Stream<GameStateEvent> events, Function<Game, Frontend> frontends, MoveProvider moveProvider) {
+        this(null, info, me, () -> events, frontends, moveProvider);
+    }
+
+    private Game(ClientAuth client, GameInfo info, JCUser me, Supplier<Stream<GameStateEvent>> events,
+            Function<Game, Frontend> frontends, MoveProvider moveProvider) {
+        this.client = client;
+        this.info = info;
+        this.me = me;
+        this.events = events;
+        this.moveProvider = moveProvider;
+        scope = new Supervisor("jc-" + info.gameId());
+        metrics = scope.own(Metrics.register(info.gameId(), queue::depth, () -> queue.stats().coalesced()));
+
+        var opponent = new JCUser(info.opponent().name(), "");
+
+        Board board = Board.fromFEN(info.fen());
+        moveTracker = new MoveTracker(board);
+
+        record Colors(JCUser white, JCUser black) {}
+        var colors = switch(info.color()) {
+            case white -> new Colors(me, opponent);
+            case black -> new Colors(opponent, me);
+        };
+
+        var newGame = new NewGame(colors.white, colors.black, info.time().timeLeft().orElse(Duration.ZERO), board, colors.black == me);
+        record(newGame);
+        queue.offer(newGame);
+
+        frontend = frontends.apply(this);
+    }
+
+    /**
+     * Starts a game of the events of the stream, i.e {@link SyntheticFeed#gameStates} for a soak test.
+     * We play white from the standard position, but make no moves.
+     */
+    public static Game synthetic(String id, Stream<GameStateEvent> events, Frontend frontend) {
+        var game = new Game(SyntheticFeed.gameInfo(id), new JCUser("White", "GM"), events, _ -> frontend, MoveProvider.none);
+        game.start();
+        return game;
+    }
+
+    static JCUser me(ClientAuth client) {
+        return switch(client.account().profile()) {
+            case Entry(UserAuth profile) -> new JCUser(profile.name(), profile.title().orElse(""));
+            default                      -> new JCUser("Me", "");
+        };
+    }
+
+    public GameInfo info() {
+        return info;
+    }
+
+    public JCState state() {
+        return live.state();
+    }
+
+    public sealed interface Command {
+        record Move(String uci) implements Command {}
+        record Resign() implements Command {}
+        record Draw() implements Command {}
+    }
+
+    public record Result(Command command, boolean ok, String message) {}
+
+    /**
+     * Submits the move if it is our turn, otherwise queues it as a premove
+     */
+    public void move(String uci) {
+        if (myTurn(live.state())) {
+            commands.offer(new Command.Move(uci));
+        } else {
+            premoves.offer(uci);
+        }
+    }
+
+    public void resign() {
+        commands.offer(new Command.Resign());
+    }
+
+    public void draw() {
+        commands.offer(new Command.Draw());
+    }
+
+    public void cancelPremoves() {
+        premoves.clear();
+    }
+
+    PlayEvent playEvent(GameStateEvent event) {
+        return switch(event) {
+            // The full game is sent first, and again on reconnect - mid game, with the moves and clocks so far
+            case GameStateEvent.Full full -> new BoardUpdate(
+                    moveTracker.start(
+                        switch(full.gameType().variant()) {
+                            case Variant.FromPosition(Some(String fen), _) -> Board.fromFEN(fen);
+                            default -> Board.fromStandardPosition();
+                        },
+                        full.state().moves()),
+                    full.state().wtime().toMillis(),
+                    full.state().btime().toMillis());
+            case GameStateEvent.State state -> new BoardUpdate(
+                    moveTracker.play(state.moves()),
+                    state.wtime().toMillis(),
+                    state.btime().toMillis());
+            case GameStateEvent.Chat(String username, String text, String room) -> new Chat(username, text, room);
+            case GameStateEvent.OpponentGone gone -> new Gone(gone.gone(),
+                    switch(gone.claimable()) {
+                        case GameStateEvent.Soon(Duration time) -> Opt.of((int) time.toSeconds());
+                        case GameStateEvent.Yes() -> Opt.of(0);
+                        case GameStateEvent.No() -> Opt.empty();
+                    });
+        };
+    }
+
+    void record(PlayEvent event) {
+        switch(event) {
+            case NewGame(var white, var black, Duration initial, var board, var flipped) -> live.recordNewGame(
+                    new JCPlayerInfo(white, initial, Color.white),
+                    new JCPlayerInfo(black, initial, Color.black),
+                    board,
+                    flipped);
+            case BoardUpdate(var board, long whiteMillis, long blackMillis) -> live.recordMove(board, whiteMillis, blackMillis, null);
+            default -> {}
+        }
+    }
+
+    /**
+     * Steps back (negative) or forward through the moves of the game, showing the position at that ply
+     * until stepped forward to the latest ply again. Moves are still made in the live position.
+     */
+    public void step(int plies) {
+        frontend.update(live.step(plies));
+    }
+
+    /**
+     * Queue depth, and number of coalesced and dropped events, of the game
+     */
+    public EventQueue.Stats stats() {
+        return queue.stats();
+    }
+
+    public boolean myTurn(JCState state) {
+        return switch(state) {
+            case JCState.None _ -> false;
+            case Basic b -> myTurn(b.board());
+            case WithMove(Basic b, _) -> myTurn(b.board());
+        };
+    }
+
+    boolean myTurn(Board board) {
+        return board.whiteToMove() == (info.color() == Color.white);
+    }
+
+    void start() {
+        var timeTick = Ticker.shared.register(
+                () -> !finished && !(live.state() instanceof JCState.None),
+                () -> live.state().timeScramble(),
+                () -> { if (!queue.offer(new TimeTick())) metrics.dropped(); });
+        scope.own(timeTick::cancel);
+
+        Stream<GameStateEvent> stream = events.get();
+        scope.own(stream);
+
+        scope.submit(() -> {
+            try {
+                for (var iterator = stream.iterator(); iterator.hasNext();) {
+                    GameStateEvent read = iterator.next();
+                    // The age of the event, and the clocks, count from when it was read - before it is converted
+                    long readNanos = System.nanoTime();
+                    PlayEvent event = playEvent(read);
+                    record(event);
+                    queue.put(event, readNanos);
+                }
+            } catch(InterruptedException ie) {
+                // Stopped
+            } finally {
+                // Also when the read fails, so a dead game isn't ticked
+                finished = true;
+            }
+        });
+
+        scope.submit(() -> {
+            while(true) {
+                final EventQueue.Timed<PlayEvent> timed;
+                try {
+                    timed = queue.takeTimed();
+                } catch(InterruptedException ie) {
+                    break;
+                }
+                PlayEvent event = timed.event();
+
+                boolean shown = switch(event) {
+                    case NewGame(var white, var black, Duration initial, var board, var flipped) -> live.newGame(
+                            new JCPlayerInfo(white, initial, Color.white),
+                            new JCPlayerInfo(black, initial, Color.black),
+                            board,
+                            flipped);
+                    case BoardUpdate(var board, long whiteMillis, long blackMillis)
+                        -> live.update(board, whiteMillis, blackMillis, timed.nanos());
+                    case TimeTick() -> live.redraw();
+                    case Chat _  -> live.redraw();
+                    case Gone _  -> live.redraw();
+                };
+                JCState state = live.state();
+                if (shown) {
+                    long start = System.nanoTime();
+                    frontend.update(state);
+                    Metrics.rendered(System.nanoTime() - start);
+                }
+                metrics.delivered(timed.nanos());
+
+                if (event instanceof BoardUpdate(var board, _, _) && !finished && myTurn(board)) {
+                    requestMove(board, state);
+                }
+            }
+        });
+
+        // Given time to drain the commands on stop - i.e a resignation before exit.
+        // Polls often, so a stopped game without pending commands is done within a tenth of a second.
+        commandWorker = scope.submit(() -> {
+            while(!(finished && commands.isEmpty())) {
+                final Command command;
+                try {
+                    command = commands.poll(100, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException ie) {
+                    break;
+                }
+                if (command != null) frontend.result(submit(command));
+            }
+        });
+    }
+
+    Result submit(Command command) {
+        if (client == null) return new Result(command, false, "Not connected");
+        Object response = switch(command) {
+            case Command.Move(String uci) -> client.board().move(info.gameId(), uci);
+            case Command.Resign() -> client.board().resign(info.gameId());
+            case Command.Draw() -> client.board().handleDrawOffer(info.gameId(), false);
+        };
+        if (response instanceof Fail<?> fail) {
+            // The remaining premoves were planned for a different position
+            if (command instanceof Command.Move) cancelPremoves();
+            return new Result(command, false, String.valueOf(fail));
+        }
+        return new Result(command, true, "");
+    }
+
+    // Plays a premove if there is one, otherwise asks the move provider for a move - once per position
+    void requestMove(Board board, JCState state) {
+        String fen = board.toFEN();
+        if (fen.equals(askedFen)) return;
+        askedFen = fen;
+
+        if (premoves.poll() instanceof String premove) {
+            commands.offer(new Command.Move(premove));
+            return;
+        }
+
+        pendingMove.cancel(true);
+        pendingMove = scope.submit(() -> {
+            try {
+                if (moveProvider.move(this, state) instanceof Some(String uci)) commands.offer(new Command.Move(uci));
+            } catch(InterruptedException ie) {
+                // Stopped, or the position changed
+            }
+        });
+    }
+
+    /**
+     * Runs the action when the game is stopped, i.e to forget the game
+     */
+    void onStop(Runnable action) {
+        onStop = action;
+    }
+
+    // Games are stopped in parallel, each waiting for its commands and threads,
+    // so stopping many games takes as long as stopping the slowest one - within one shared deadline.
+    public static void stopAll(Collection<Game> games) {
+        var stopping = games.stream()
+            .map(game -> Thread.ofVirtual().name("jc-stop-" + game.info().gameId()).start(game::stop))
+            .toList();
+        long deadline = System.nanoTime() + Supervisor.joinTimeout.multipliedBy(2).toNanos();
+        try {
+            for (Thread thread : stopping) {
+                thread.join(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())));
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the game, waiting a bounded time for pending commands to be submitted
+     * and for the threads of the game to finish. Stopping an already stopped game does nothing.
+     */
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) return;
+        onStop.run();
+        finished = true;
+        pendingMove.cancel(true);
+        try {
+            commandWorker.get(Supervisor.joinTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException | TimeoutException | CancellationException e) {
+            // Closing anyway
+        }
+        scope.close();
+        frontend.close();
+    }
+}
@@ -0,0 +1,192 @@
+package jc.app;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import jc.app.Feed.*;
+import jc.metrics.Metrics;
+import jc.model.JCState.*;
+
+/**
+ * Writes one compact line per board update, for piping into other tools instead of watching.
+ *
+ * <pre>
+ * ndjson: {"source":"blitz","fen":"...","lm":"e2e4","wc":179000,"bc":180000,"white":"...","black":"..."}
+ * fen:    rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1
+ * </pre>
+ * Clocks are in milliseconds, as last reported by the server. Clock ticks don't change the state, and are not written.
+ * Lines are written as the events are parsed, so every move is written - also those coalesced before a slow
+ * consumer of the feed's states gets to see them.
+ *
+ * Lines from any number of feeds are appended to one buffer, which is written in batches -
+ * when it fills up, or at the latest after {@link #maxDelay}.
+ * A failed write, i.e when the reading end of a pipe has gone, is counted as a failure in {@link Metrics}
+ * and ends the output - the feeds writing to it carry on.
+ */
+public final class LineOutput implements AutoCloseable {
+
+    public enum Format { ndjson, fen }
+
+    static final int bufferSize = 1 << 16;
+    static final Duration maxDelay = Duration.ofMillis(50);
+
+    private final OutputStream out;
+    private final Format format;
+    private final byte[] buffer = new byte[bufferSize];
+    private int length = 0;
+    private IOException error = null;
+    private final Thread flusher;
+
+    private static LineOutput stdout = null;
+
+    public LineOutput(OutputStream out, Format format) {
+        this.out = out;
+        this.format = format;
+        flusher = Thread.ofVirtual().name("jc-lines").start(this::flushLoop);
+    }
+
+    /**
+     * Standard out, without the line flushing of {@link System#out}.
+     * There is one buffer for standard out, shared by all callers, which all use the same format.
+     */
+    public static synchronized LineOutput stdout(Format format) {
+        if (stdout == null) {
+            stdout = new LineOutput(new FileOutputStream(FileDescriptor.out), format);
+            Runtime.getRuntime().addShutdownHook(new Thread(stdout::flush));
+        } else if (stdout.format != format) {
+            throw new IllegalStateException("Standard out is already written as " + stdout.format);
+        }
+        return stdout;
+    }
+
+    /**
+     * Writes a line per new game and board update of the stream, as its events are parsed
+     * @param source name of the feed, included in ndjson lines
+     */
+    public Stream<Unparsed> record(String source, Stream<Unparsed> stream) {
+        var lines = new Lines(source);
+        return stream
+            .map(unparsed -> (Unparsed) () -> {
+                FeedEvent event = unparsed.parse();
+                lines.accept(event);
+                return event;
+            });
+    }
+
+    // The players of the current game of one stream, for the lines of its board updates
+    final class Lines {
+        final String source;
+        JCPlayerInfo white = null;
+        JCPlayerInfo black = null;
+
+        Lines(String source) {
+            this.source = source;
+        }
+
+        synchronized void accept(FeedEvent event) {
+            switch(event) {
+                case JCNewGame(var white, var black, var board, _) -> {
+                    this.white = white;
+                    this.black = black;
+                    write(line(board.toFEN(), null, white.time().toMillis(), black.time().toMillis()));
+                }
+                case JCBoardUpdate(var board, long whiteMillis, long blackMillis, var lm) -> {
+                    // Not before the first game of the stream, as there are no players to write yet
+                    if (white == null) return;
+                    write(line(board.toFEN(), lm, whiteMillis, blackMillis));
+                }
+                case JCTimeTick _ -> {}
+            }
+        }
+
+        String line(String fen, String lm, long whiteMillis, long blackMillis) {
+            return switch(format) {
+                case fen -> fen;
+                case ndjson -> {
+                    var sb = new StringBuilder(160);
+                    sb.append("{\"source\":"); quote(sb, source);
+                    sb.append(",\"fen\":"); quote(sb, fen);
+                    sb.append(",\"lm\":"); quote(sb, lm == null ? "" : lm);
+                    sb.append(",\"wc\":").append(whiteMillis);
+                    sb.append(",\"bc\":").append(blackMillis);
+                    sb.append(",\"white\":"); quote(sb, white.user().name());
+                    sb.append(",\"black\":"); quote(sb, black.user().name());
+                    yield sb.append('}').toString();
+                }
+            };
+        }
+    }
+
+    static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '"'  -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                default   -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    synchronized void write(String line) {
+        if (error != null) return;
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (length + bytes.length > buffer.length) flush();
+        if (bytes.length > buffer.length) {
+            writeOut(bytes, bytes.length);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    public synchronized void flush() {
+        if (length == 0 || error != null) return;
+        writeOut(buffer, length);
+        length = 0;
+    }
+
+    /**
+     * @return the error which ended the output, or null
+     */
+    public synchronized IOException error() {
+        return error;
+    }
+
+    private void writeOut(byte[] bytes, int count) {
+        try {
+            out.write(bytes, 0, count);
+            out.flush();
+        } catch(IOException ioe) {
+            // i.e the reading end of a pipe has gone, nothing more to write
+            error = ioe;
+            length = 0;
+            flusher.interrupt();
+            Metrics.failed("lines", ioe.toString());
+        }
+    }
+
+    private void flushLoop() {
+        while(true) {
+            try {
+                Thread.sleep(maxDelay);
+            } catch(InterruptedException ie) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.interrupt();
+        flush();
+    }
+}
@@ -0,0 +1,76 @@
+package jc.app;
+
+import chariot.util.Board;
+import jc.model.History;
+import jc.model.JCState;
+import jc.model.JCState.*;
+
+/**
+ * The live state of the current game of a feed or a played game, and the history of its moves.
+ *
+ * Moves are recorded in the history as they are parsed, so every move is kept - also those coalesced before
+ * they are folded into the live state. While stepped back in the history the live state is still folded,
+ * but not shown. The clock of the side to move is counted down from the last server clock when rendered,
+ * so a tick only asks for a redraw - it doesn't change the state and can't make the clocks drift.
+ */
+final class LiveState {
+
+    private final History history = new History();
+    private volatile JCState state = new JCState.None();
+
+    void recordNewGame(JCPlayerInfo white, JCPlayerInfo black, Board board, boolean flipped) {
+        history.newGame(white, black, board, flipped);
+    }
+
+    void recordMove(Board board, long whiteMillis, long blackMillis, String lm) {
+        history.record(board, whiteMillis, blackMillis, lm);
+    }
+
+    /**
+     * @return true if the state is to be shown, i.e not while stepped back in the history
+     */
+    boolean newGame(JCPlayerInfo white, JCPlayerInfo black, Board board, boolean flipped) {
+        state = JCState.of(white, black, board, flipped);
+        return redraw();
+    }
+
+    /**
+     * Folds a board update with its last move
+     * @param stampNanos {@link System#nanoTime()} when the update was read, which the clocks count down from
+     * @return true if the state is to be shown, i.e not while stepped back in the history
+     */
+    boolean update(Board board, long whiteMillis, long blackMillis, String lm, long stampNanos) {
+        state = state.withUpdate(board, whiteMillis, blackMillis, lm, stampNanos);
+        return redraw();
+    }
+
+    /**
+     * Folds a board update, keeping the last move of the state
+     * @param stampNanos {@link System#nanoTime()} when the update was read, which the clocks count down from
+     * @return true if the state is to be shown, i.e not while stepped back in the history
+     */
+    boolean update(Board board, long whiteMillis, long blackMillis, long stampNanos) {
+        state = state.withUpdate(board, whiteMillis, blackMillis, stampNanos);
+        return redraw();
+    }
+
+    /**
+     * @return true if the state is to be shown again, i.e for a tick - not while stepped back in the history
+     */
+    boolean redraw() {
+        return !history.scrubbing();
+    }
+
+    JCState state() {
+        return state;
+    }
+
+    /**
+     * Steps back (negative) or forward through the history of the current game
+     * @return the state at that ply, or the live state when stepped forward to the latest ply again
+     */
+    JCState step(int plies) {
+        JCState at = history.step(plies);
+        return at == null ? state : at;
+    }
+}
@@ -0,0 +1,87 @@
+package jc.app;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A file mapped in segments of 1 GiB, as a single mapping can't be larger than 2 GiB.
+ *
+ * Records are written so they never straddle two segments - see {@link #fit} - so a record is read
+ * from a single segment. The mapping follows the file as it grows, segment by segment.
+ */
+final class MappedSegments {
+
+    static final int segmentBits = 30;
+    static final long segmentSize = 1L << segmentBits;
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long mapped = 0;
+
+    MappedSegments(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        this.channel = channel;
+        this.mode = mode;
+        remap();
+    }
+
+    /**
+     * A view of the segment of the position, positioned at it
+     */
+    ByteBuffer at(long position) {
+        return segment(position).duplicate().position(offset(position));
+    }
+
+    long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    void putLong(long position, long value) {
+        segment(position).putLong(offset(position), value);
+    }
+
+    void force() {
+        segments.forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * Where a record of length bytes is written, at the position or - if it would straddle two segments -
+     * at the start of the next segment. The bytes skipped are left unused.
+     */
+    static long fit(long position, int length) {
+        if (length > segmentSize) throw new IllegalArgumentException("A record of " + length + " bytes doesn't fit in a segment");
+        long last = position + length - 1;
+        return position >>> segmentBits == last >>> segmentBits
+            ? position
+            : last >>> segmentBits << segmentBits;
+    }
+
+    private MappedByteBuffer segment(long position) {
+        if (position >= mapped) {
+            try {
+                remap();
+            } catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        if (position >= mapped) throw new IndexOutOfBoundsException("Position " + position + " is beyond the end of the file, " + mapped);
+        return segments.get((int) (position >>> segmentBits));
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (segmentSize - 1));
+    }
+
+    // Maps what the file has grown by - the last segment again, if it wasn't full, and any new ones
+    private void remap() throws IOException {
+        long size = channel.size();
+        int full = (int) (mapped >>> segmentBits);
+        while (segments.size() > full) segments.removeLast();
+        for (long start = (long) full << segmentBits; start < size; start += segmentSize) {
+            segments.add(channel.map(mode, start, Math.min(segmentSize, size - start)));
+        }
+        mapped = size;
+    }
+}
@@ -0,0 +1,48 @@
+package jc.app;
+
+import chariot.util.Board;
+
+/**
+ * Keeps the board of a game in step with its move list.
+ * Only the moves added since the previous update are played,
+ * and the whole list is replayed from the initial board only if
+ * the move list no longer continues the previous one (i.e takeback).
+ * The initial board is taken from the full game, which is also sent on reconnect.
+ */
+final class MoveTracker {
+
+    private Board initial;
+    private Board board;
+    private String moves = "";
+
+    MoveTracker(Board initial) {
+        this.initial = initial;
+        this.board = initial;
+    }
+
+    /**
+     * Starts over from the initial board of the game, with the moves played so far
+     */
+    Board start(Board initial, String moves) {
+        this.initial = initial;
+        this.board = initial;
+        this.moves = "";
+        return play(moves);
+    }
+
+    Board play(String moves) {
+        if (moves.equals(this.moves)) return board;
+
+        boolean continues = moves.startsWith(this.moves)
+            && (this.moves.isEmpty() || moves.charAt(this.moves.length()) == ' ');
+
+        if (continues) {
+            board = board.play(moves.substring(this.moves.length()).strip());
+        } else {
+            board = moves.isBlank() ? initial : initial.play(moves);
+        }
+
+        this.moves = moves;
+        return board;
+    }
+}
@@ -2,26 +2,36 @@ package jc.app;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.prefs.Preferences;
 import java.util.stream.Stream;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.time.Duration;
 
 import chariot.*;
 import chariot.model.*;
 import chariot.model.Event.*;
-import chariot.model.Enums.Color;
 import chariot.util.Board;
 import jc.model.JCState;
 import jc.model.JCState.*;
 
 public interface Play {
-    static ExecutorService executor = Executors.newSingleThreadExecutor();
-    static Map<String, GameHandler> games = new ConcurrentHashMap<>();
 
     static Play casual15m10s() {
+        return casual15m10s(GameHandler::new, MoveProvider.none);
+    }
+
+    /**
+     * Plays without any window, with moves from the move provider
+     */
+    static Play headless(MoveProvider moveProvider) {
+        return casual15m10s(_ -> Frontend.none, moveProvider);
+    }
+
+    static Play casual15m10s(Function<Game, Frontend> frontends, MoveProvider moveProvider) {
 
         if (! (initializeClient() instanceof Some(ClientAuth client))) return dummy;
 
@@ -30,17 +40,25 @@ public interface Play {
         // we will be notified about that through a gameStart event from this stream.
         final var events = client.board().connect().stream();
 
-        executor.submit(() -> {
+        // Each Play owns its scope and its games, so a stopped Play leaves nothing behind
+        // and a new one can be started
+        Supervisor scope = new Supervisor("jc-play");
+        Map<String, Game> games = new ConcurrentHashMap<>();
+        scope.own(events);
+
+        scope.submit(() -> {
             events.forEach(event -> {
                 switch(event) {
                     case GameStartEvent(var game, _) -> {
-                        var gameHandler = new GameHandler(client, game);
-                        games.put(game.gameId(), gameHandler);
-                        gameHandler.start();
+                        var handler = new Game(client, game, frontends, moveProvider);
+                        // A game stopped from its window is forgotten as well
+                        handler.onStop(() -> games.remove(game.gameId(), handler));
+                        games.put(game.gameId(), handler);
+                        handler.start();
                     }
                     case GameStopEvent(var game, _, _) -> {
-                        var gameHandler = games.remove(game.gameId());
-                        if (gameHandler != null) gameHandler.stop();
+                        var handler = games.remove(game.gameId());
+                        if (handler != null) handler.stop();
                     }
                     default -> {}
                 }
@@ -60,167 +78,121 @@ public interface Play {
 
             @Override
             public void stop() {
-                events.close();
                 closeToStopCurrentSeek.close();
-                executor.shutdownNow();
+                scope.close();
+                Game.stopAll(games.values());
             }
         };
     }
 
     sealed interface PlayEvent {}
     record NewGame(JCUser white, JCUser black, Duration intitial, Board board, boolean flipped) implements PlayEvent {};
-    record BoardUpdate(Board board, Duration whiteTime, Duration blackTime) implements PlayEvent {
-        public BoardUpdate(Board board, Duration time) {
-            this(board, time, time);
-        }
-    };
-    record TimeTick() implements PlayEvent {};
+    record BoardUpdate(Board board, long whiteMillis, long blackMillis) implements PlayEvent, EventQueue.Coalesced {};
+    record TimeTick() implements PlayEvent, EventQueue.Coalesced {};
     record Chat(String from, String text, String room) implements PlayEvent {};
     record Gone(boolean gone, Opt<Integer> secondsUntilClaimable) implements PlayEvent {};
 
-    class GameHandler extends JFrame {
-        final ClientAuth client;
-        final GameInfo game;
-        BlockingQueue<PlayEvent> queue = new ArrayBlockingQueue<>(1024);
-        volatile Stream<PlayEvent> stream = Stream.of();
-        ScheduledExecutorService timeTickerExecutor = Executors.newSingleThreadScheduledExecutor();
-        ExecutorService executor = Executors.newFixedThreadPool(2);
+    /**
+     * Supplies the moves of a game.
+     * Called on a virtual thread of its own when it is our turn to move, so it may block until a move is decided.
+     */
+    interface MoveProvider {
+        Opt<String> move(Game game, JCState state) throws InterruptedException;
 
-        final JCUser me;
+        static MoveProvider none = (_, _) -> Opt.empty();
+    }
+
+    /**
+     * Presents the state of a game, i.e in a window
+     */
+    interface Frontend {
+        void update(JCState state);
+        default void result(Game.Result result) {}
+        default void close() {}
+
+        static Frontend none = _ -> {};
+    }
+
+    /**
+     * Swing front-end, where moves are entered in UCI format in a text field
+     */
+    class GameHandler extends JFrame implements Frontend {
+        final Game game;
 
-        JTextArea textArea = new JTextArea(22, 35);
+        BoardPanel boardPanel = new BoardPanel();
         JTextField textField = new JTextField(8);
         JPanel buttonPanel = new JPanel();
         JButton resign = new JButton("Resign");
         JButton draw = new JButton("Draw");
         JButton exit = new JButton("Exit");
+        JLabel status = new JLabel(" ");
 
 
-        GameHandler(ClientAuth client, GameInfo game) {
-            this.client = client;
+        GameHandler(Game game) {
             this.game = game;
 
             setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-            setTitle("JC - Game ID: " + game.gameId());
+            setTitle("JC - Game ID: " + game.info().gameId());
             JPanel panel = new JPanel();
             getContentPane().add(panel);
 
-            textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 20));
-
             panel.setLayout(new BorderLayout());
-            panel.add(textArea, BorderLayout.CENTER);
+            panel.add(boardPanel, BorderLayout.CENTER);
             panel.add(buttonPanel, BorderLayout.NORTH);
             panel.add(textField, BorderLayout.SOUTH);
 
             textField.addActionListener(_ -> {
                 String move = textField.getText();
-                client.board().move(game.gameId(), move);
+                game.move(move);
                 SwingUtilities.invokeLater(() -> textField.setText(""));
             });
 
             buttonPanel.add(resign);
             buttonPanel.add(draw);
             buttonPanel.add(exit);
+            buttonPanel.add(status);
 
-            resign.addActionListener(_ -> client.board().resign(game.gameId()));
-            draw.addActionListener(_ -> client.board().handleDrawOffer(game.gameId(), false));
+            // Up and down step through the moves of the game, as left and right move the cursor of the text field
+            bindKey("UP", "back", () -> game.step(-1));
+            bindKey("DOWN", "forward", () -> game.step(1));
+
+            resign.addActionListener(_ -> game.resign());
+            draw.addActionListener(_ -> game.draw());
+            // Stopped off the event thread, as stopping waits for the resignation to be sent
             exit.addActionListener(_ -> {
-                resign.doClick();
-                stop();
-                dispose();
+                game.resign();
+                Supervisor.shared.submit(game::stop);
             });
 
             pack();
             setVisible(true);
-
-            me = switch(client.account().profile()) {
-                case Entry(UserAuth profile) -> new JCUser(profile.name(), profile.title().orElse(""));
-                default                      -> new JCUser("Me", "");
-            };
-
-            var opponent = new JCUser(game.opponent().name(), "");
-
-            Board board = Board.fromFEN(game.fen());
-
-            record Colors(JCUser white, JCUser black) {}
-            var colors = switch(game.color()) {
-                case white -> new Colors(me, opponent);
-                case black -> new Colors(opponent, me);
-            };
-
-            queue.offer(new NewGame(colors.white, colors.black, game.time().timeLeft().orElse(Duration.ZERO), board, colors.black == me));
         }
 
-        void start() {
-            timeTickerExecutor.scheduleAtFixedRate(
-                    () -> queue.offer(new TimeTick()),
-                    0, 1, TimeUnit.SECONDS);
-
-            stream = client.board().connectToGame(game.gameId()).stream()
-                .map(event -> (PlayEvent) switch(event) {
-                    case GameStateEvent.Full full -> new BoardUpdate(
-                            switch(full.gameType().variant()) {
-                                case Variant.FromPosition(Some(String fen), _) -> Board.fromFEN(fen);
-                                default -> Board.fromStandardPosition();
-                            },
-                            switch(full.gameType().timeControl()) {
-                                case RealTime real -> real.initial();
-                                default -> Duration.ZERO;
-                            });
-                    case GameStateEvent.State state -> new BoardUpdate(
-                            Board.fromFEN(game.fen()).play(state.moves()),
-                            state.wtime(),
-                            state.btime());
-                    case GameStateEvent.Chat(String username, String text, String room) -> new Chat(username, text, room);
-                    case GameStateEvent.OpponentGone gone -> new Gone(gone.gone(),
-                            switch(gone.claimable()) {
-                                case GameStateEvent.Soon(Duration time) -> Opt.of((int) time.toSeconds());
-                                case GameStateEvent.Yes() -> Opt.of(0);
-                                case GameStateEvent.No() -> Opt.empty();
-                            });
-                });
-
-            executor.submit(() -> stream.forEach(queue::offer));
-
-            executor.submit(() -> {
-
-                JCState currentState = new JCState.None();
-
-                while(true) {
-                    final PlayEvent event;
-                    try {
-                        event = queue.take();
-                    } catch(InterruptedException ie) {
-                        break;
-                    }
-
-                    currentState = switch(event) {
-                        case NewGame(var white, var black, Duration initial, var board, var flipped) -> JCState.of(
-                                new JCPlayerInfo(white, initial, Color.white),
-                                new JCPlayerInfo(black, initial, Color.black),
-                                board,
-                                flipped);
-                        case BoardUpdate(var board, Duration whiteTime, Duration blackTime) -> currentState
-                            .withBoard(board)
-                            .withWhiteTime(whiteTime)
-                            .withBlackTime(blackTime);
-                        case TimeTick() -> currentState.withOneSecondTick();
-                        case Chat _  -> currentState;
-                        case Gone _  -> currentState;
-                    };
-
-                    String board = JCState.render(currentState);
-                    SwingUtilities.invokeLater(() -> textArea.setText(board));
-                };
+        void bindKey(String key, String name, Runnable action) {
+            getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), name);
+            getRootPane().getActionMap().put(name, new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    action.run();
+                }
             });
         }
 
-        void stop() {
-            stream.close();
-            executor.shutdownNow();
-            timeTickerExecutor.shutdownNow();
+        @Override
+        public void update(JCState state) {
+            boardPanel.update(state);
         }
 
+        @Override
+        public void result(Game.Result result) {
+            String text = result.ok() ? " " : "Failed: " + result.command();
+            SwingUtilities.invokeLater(() -> status.setText(text));
+        }
+
+        @Override
+        public void close() {
+            SwingUtilities.invokeLater(this::dispose);
+        }
     }
 
 
@@ -0,0 +1,91 @@
+package jc.app;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+import jc.metrics.Metrics;
+
+/**
+ * Scope owning the virtual threads and resources of a feed, a game or a server.
+ * Each reader and state loop is a virtual thread, so the number of carrier
+ * (platform) threads stays the same no matter how many games are watched.
+ *
+ * Closing the scope closes the resources it owns, latest first - i.e a stream, to unblock
+ * its reader - then interrupts its threads and waits a bounded time for them to finish,
+ * so nothing started by the scope outlives it. Threads still running after that are counted
+ * as a failure in {@link Metrics}.
+ *
+ * The threads of a scope depend on each other - a stage of a feed which dies leaves the stage
+ * before it waiting for room forever - so a task which fails, other than while the scope is closing,
+ * is counted as a failure and closes its scope. The shared scope is never closed by a failure.
+ */
+public final class Supervisor implements AutoCloseable {
+
+    public static final Supervisor shared = new Supervisor("jc");
+
+    static final Duration joinTimeout = Duration.ofSeconds(2);
+
+    private static final ThreadLocal<Supervisor> current = new ThreadLocal<>();
+
+    private final String name;
+    private final ExecutorService executor;
+    private final Deque<AutoCloseable> resources = new ConcurrentLinkedDeque<>();
+    private volatile boolean closing = false;
+
+    public Supervisor(String name) {
+        this.name = name;
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    public Future<?> submit(Runnable task) {
+        return executor.submit(() -> {
+            current.set(this);
+            try {
+                task.run();
+            } catch(Throwable t) {
+                // Closing the stream of a reader may fail the read, that's how it is stopped
+                if (closing) return;
+                Metrics.failed(name, t.toString());
+                if (this != shared) close();
+            }
+        });
+    }
+
+    /**
+     * Closes the resource when the scope is closed
+     */
+    public <T extends AutoCloseable> T own(T resource) {
+        resources.push(resource);
+        return resource;
+    }
+
+    /**
+     * @return true if all threads of the scope have finished
+     */
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public void close() {
+        closing = true;
+        for (AutoCloseable resource; (resource = resources.poll()) != null;) {
+            try {
+                resource.close();
+            } catch(Exception e) {
+                // Closing anyway
+            }
+        }
+        executor.shutdownNow();
+        // A thread of the scope closing it can't wait for itself
+        if (current.get() == this) return;
+        try {
+            if (!executor.awaitTermination(joinTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                Metrics.failed(name, "threads still running " + joinTimeout.toSeconds() + "s after close");
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package jc.app;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
+
+import chariot.model.*;
+import chariot.model.Enums.Color;
+import chariot.util.Board;
+
+/**
+ * TV feed and game events of chess games, for running without network access - i.e a training run or a soak test.
+ *
+ * The fixed feed is played from a corpus of known games, with positions computed once - so generating
+ * its events costs next to nothing. The random games are played with random legal moves, so they reach
+ * new positions all the time, as a live feed does.
+ */
+public final class SyntheticFeed {
+
+    private SyntheticFeed() {}
+
+    // Morphy - Duke Karl / Count Isouard, Paris 1858
+    public static final List<String> opera = List.of(
+            "e2e4", "e7e5", "g1f3", "d7d6", "d2d4", "c8g4", "d4e5", "g4f3",
+            "d1f3", "d6e5", "f1c4", "g8f6", "f3b3", "d8e7", "b1c3", "c7c6",
+            "c1g5", "b7b5", "c3b5", "c6b5", "c4b5", "b8d7", "e1c1", "a8d8",
+            "d1d7", "d8d7", "h1d1", "e7e6", "b5d7", "f6d7", "b3b8", "d7b8",
+            "d1d8");
+
+    static final List<List<String>> corpus = List.of(
+            opera,
+            // Scholar's mate
+            List.of("e2e4", "e7e5", "f1c4", "b8c6", "d1h5", "g8f6", "h5f7"),
+            // Fool's mate
+            List.of("f2f3", "e7e5", "g2g4", "d8h4"),
+            // Ruy Lopez, closed
+            List.of("e2e4", "e7e5", "g1f3", "b8c6", "f1b5", "a7a6", "b5a4", "g8f6",
+                    "e1g1", "f8e7", "f1e1", "b7b5", "a4b3", "d7d6", "c2c3", "e8g8",
+                    "h2h3"),
+            // Queen's Gambit Declined, Capablanca's freeing manoeuvre
+            List.of("d2d4", "d7d5", "c2c4", "e7e6", "b1c3", "g8f6", "c1g5", "f8e7",
+                    "e2e3", "e8g8", "g1f3", "b8d7", "a1c1", "c7c6", "f1d3", "d5c4",
+                    "d3c4", "f6d5", "g5e7", "d8e7", "e1g1", "d5c3", "c1c3", "e6e5"),
+            // Sicilian Najdorf, English attack
+            List.of("e2e4", "c7c5", "g1f3", "d7d6", "d2d4", "c5d4", "f3d4", "g8f6",
+                    "b1c3", "a7a6", "c1e3", "e7e5", "d4b3", "c8e6", "f2f3", "f8e7",
+                    "d1d2", "e8g8", "e1c1", "b8d7", "g2g4", "b7b5"));
+
+    record Game(List<String> moves, List<String> fens) {
+        static Game of(List<String> moves) {
+            List<String> fens = new ArrayList<>(moves.size() + 1);
+            Board board = Board.fromStandardPosition();
+            fens.add(board.toFEN());
+            for (String move : moves) {
+                board = board.play(move);
+                fens.add(board.toFEN());
+            }
+            return new Game(moves, fens);
+        }
+    }
+
+    static final List<Game> games = corpus.stream().map(Game::of).toList();
+
+    /**
+     * The positions after each move of the opera game
+     */
+    public static List<String> operaPositions() {
+        List<String> fens = games.getFirst().fens();
+        return fens.subList(1, fens.size());
+    }
+
+    static final Duration initial = Duration.ofMinutes(3);
+    static final Duration increment = Duration.ofSeconds(2);
+
+    /**
+     * The opera game followed by its moves, repeated until there are count events.
+     * The last event has the last move "end", to tell when all events have been consumed.
+     */
+    public static Stream<TVFeedEvent> tvFeed(int count) {
+        Game game = games.getFirst();
+        List<TVFeedEvent> events = new ArrayList<>(game.moves().size() + 1);
+        events.add(featured("synthetic", game.fens().getFirst()));
+        for (int i = 0; i < game.moves().size(); i++) {
+            events.add(new TVFeedEvent.Fen(game.fens().get(i + 1), game.moves().get(i),
+                        Duration.ofSeconds(180 - i), Duration.ofSeconds(180 - i)));
+        }
+        var end = new TVFeedEvent.Fen(game.fens().getLast(), "end", Duration.ZERO, Duration.ZERO);
+        return Stream.concat(
+                Stream.iterate(0, i -> i + 1)
+                    .map(i -> events.get(i % events.size()))
+                    .limit(Math.max(1, count - 1)),
+                Stream.of(end));
+    }
+
+    /**
+     * An eternal TV feed of random legal games, each ending at a random move or when there are no legal moves.
+     * Clocks run down by the time taken for each move, plus an increment.
+     * @param moveInterval mean time between moves, where the time between two moves is exponentially
+     * distributed around it. Zero to produce moves as fast as they are consumed.
+     */
+    public static Stream<TVFeedEvent> randomGames(Random random, Duration moveInterval) {
+        var generator = new Generator(random, moveInterval);
+        return Stream.generate(generator::next).map(step -> switch(step) {
+            case Started(String id, Board board) -> featured(id, board.toFEN());
+            case Moved(Board board, String move, _, long whiteMillis, long blackMillis)
+                -> new TVFeedEvent.Fen(board.toFEN(), move, Duration.ofMillis(whiteMillis), Duration.ofMillis(blackMillis));
+        });
+    }
+
+    /**
+     * Eternal game events of random legal games as {@link #randomGames}, as sent by Lichess to a player of
+     * the game of {@link #gameInfo} - each game starts with the full game, as on a reconnect.
+     */
+    public static Stream<GameStateEvent> gameStates(Random random, Duration moveInterval) {
+        var generator = new Generator(random, moveInterval);
+        return Stream.generate(generator::next).map(step -> switch(step) {
+            case Started _ -> new GameStateEvent.Full(
+                    new GameType(new Variant.Basic(), new RealTime(initial)),
+                    new GameStateEvent.State("", initial, initial));
+            case Moved(_, _, String moves, long whiteMillis, long blackMillis)
+                -> new GameStateEvent.State(moves, Duration.ofMillis(whiteMillis), Duration.ofMillis(blackMillis));
+        });
+    }
+
+    /**
+     * A game from the standard position, where we play white
+     */
+    static GameInfo gameInfo(String id) {
+        return new GameInfo(id, Board.fromStandardPosition().toFEN(), Color.white,
+                new GameInfo.Opponent("Black"), new GameInfo.Time(Opt.of(initial)));
+    }
+
+    static TVFeedEvent featured(String id, String fen) {
+        return new TVFeedEvent.Featured(id, Color.white, List.of(
+                    new PlayerInfo(UserInfo.of("white", "White", "GM"), Color.white, 2800, initial),
+                    new PlayerInfo(UserInfo.of("black", "Black"), Color.black, 2800, initial)),
+                fen);
+    }
+
+    static final int maxPlies = 160;
+
+    sealed interface Step {}
+    record Started(String id, Board board) implements Step {}
+    /**
+     * @param moves all moves of the game so far
+     */
+    record Moved(Board board, String move, String moves, long whiteMillis, long blackMillis) implements Step {}
+
+    static final class Generator {
+        final Random random;
+        final long meanNanos;
+        Board board = null;
+        final StringBuilder moves = new StringBuilder();
+        int ply = 0;
+        int lastPly = 0;
+        long whiteMillis;
+        long blackMillis;
+        long played = 0;
+
+        Generator(Random random, Duration moveInterval) {
+            this.random = random;
+            this.meanNanos = moveInterval.toNanos();
+        }
+
+        Step next() {
+            List<String> validMoves = board == null || ply >= lastPly ? List.of() : validMoves(board);
+            if (validMoves.isEmpty()) {
+                board = Board.fromStandardPosition();
+                moves.setLength(0);
+                ply = 0;
+                lastPly = 1 + random.nextInt(maxPlies);
+                whiteMillis = initial.toMillis();
+                blackMillis = initial.toMillis();
+                return new Started("synthetic-" + played++, board);
+            }
+
+            long thinkNanos = meanNanos > 0
+                ? (long) (-Math.log(1 - random.nextDouble()) * meanNanos)
+                : 0;
+            if (thinkNanos > 0) {
+                try {
+                    Thread.sleep(Duration.ofNanos(thinkNanos));
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            // Clocks as if each move took a few seconds, when generating as fast as possible
+            long thinkMillis = meanNanos > 0 ? thinkNanos / 1_000_000 : random.nextInt(5000);
+            if (ply % 2 == 0) {
+                whiteMillis = Math.max(0, whiteMillis - thinkMillis) + increment.toMillis();
+            } else {
+                blackMillis = Math.max(0, blackMillis - thinkMillis) + increment.toMillis();
+            }
+            ply++;
+            String move = validMoves.get(random.nextInt(validMoves.size()));
+            board = board.play(move);
+            if (!moves.isEmpty()) moves.append(' ');
+            moves.append(move);
+            return new Moved(board, move, moves.toString(), whiteMillis, blackMillis);
+        }
+
+        // Sorted, as the set has no defined order - so a seed always plays the same games
+        static List<String> validMoves(Board board) {
+            return board.validMoves().stream().map(Board.Move::uci).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package jc.app;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import jc.metrics.Metrics;
+
+/**
+ * Process wide clock tick service.
+ * Instead of one timer per feed or game, a single thread makes one batched
+ * pass per period over everything registered, skipping registrations which
+ * are not active (no game yet, or game finished).
+ * With {@link #tenths(boolean)} enabled, registrations in a time scramble
+ * are also ticked at every tenth of a period.
+ * A registration which throws is cancelled and counted as a failure in {@link Metrics}.
+ */
+public final class Ticker {
+
+    public static final Ticker shared = new Ticker(Duration.ofSeconds(1));
+
+    public interface Registration {
+        void cancel();
+    }
+
+    private final class Entry implements Registration {
+        final BooleanSupplier active;
+        final BooleanSupplier scramble;
+        final Runnable tick;
+
+        Entry(BooleanSupplier active, BooleanSupplier scramble, Runnable tick) {
+            this.active = active;
+            this.scramble = scramble;
+            this.tick = tick;
+        }
+
+        @Override
+        public void cancel() {
+            registrations.remove(this);
+        }
+    }
+
+    private final Set<Entry> registrations = ConcurrentHashMap.newKeySet();
+    private final long tenthNanos;
+    private volatile boolean tenths = false;
+
+    Ticker(Duration period) {
+        tenthNanos = period.toNanos() / 10;
+        Thread.ofVirtual().name("jc-ticker").start(this::run);
+    }
+
+    public void tenths(boolean enabled) {
+        tenths = enabled;
+    }
+
+    public Registration register(BooleanSupplier active, Runnable tick) {
+        return register(active, () -> false, tick);
+    }
+
+    public Registration register(BooleanSupplier active, BooleanSupplier scramble, Runnable tick) {
+        var entry = new Entry(active, scramble, tick);
+        registrations.add(entry);
+        return entry;
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        long pass = 0;
+        while(true) {
+            boolean wholePeriod = pass % 10 == 0;
+            for (var entry : registrations) {
+                try {
+                    if (!entry.active.getAsBoolean()) continue;
+                    if (wholePeriod || entry.scramble.getAsBoolean()) entry.tick.run();
+                } catch(RuntimeException e) {
+                    // A failing registration is dropped, so it can't stop the ticks of everything else
+                    entry.cancel();
+                    Metrics.failed("ticker", e.toString());
+                }
+            }
+            long passes = tenths ? 1 : 10 - pass % 10;
+            pass += passes;
+            next += passes * tenthNanos;
+            try {
+                Thread.sleep(Duration.ofNanos(Math.max(0, next - System.nanoTime())));
+            } catch(InterruptedException ie) {
+                break;
+            }
+        }
+    }
+}
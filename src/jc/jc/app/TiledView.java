@@ -0,0 +1,123 @@
+package jc.app;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import jc.model.JCState;
+
+/**
+ * Several boards side by side in one terminal, i.e the classical, rapid and blitz channels at once.
+ *
+ * Each tile is rendered on the thread of its own feed whenever its state changes, and keeps its
+ * rendered lines. A compositor lays out the cached tiles at a capped frame rate and writes only the
+ * characters which changed since the previous frame, so the output is bounded by the frame rate
+ * no matter how many boards there are or how often they change.
+ */
+public final class TiledView implements BiConsumer<String, JCState> {
+
+    // The board is 33 characters wide, longer names are cut
+    static final int tileWidth = 36;
+    static final String blank = " ".repeat(tileWidth);
+
+    private static final class Tile {
+        final String source;
+        volatile String[] lines;
+
+        Tile(String source) {
+            this.source = source;
+            lines = new String[] { pad(source) };
+        }
+    }
+
+    private final List<Tile> tiles;
+    private final Map<String, Tile> bySource = new HashMap<>();
+    private final int columns;
+    private final boolean tenths;
+    private final Duration frameInterval;
+    private final AnsiRenderer renderer;
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final Supervisor scope = new Supervisor("jc-tiles");
+    // Rows only grow, so a tile without a game doesn't move the rows below it
+    private final int[] rowHeights;
+
+    TiledView(PrintStream out, List<String> sources, int columns, int framesPerSecond, boolean tenths) {
+        this.tiles = sources.stream().map(Tile::new).toList();
+        tiles.forEach(tile -> bySource.put(tile.source, tile));
+        this.columns = Math.max(1, columns);
+        this.rowHeights = new int[(tiles.size() + this.columns - 1) / this.columns];
+        this.tenths = tenths;
+        this.frameInterval = Duration.ofMillis(1000 / Math.max(1, framesPerSecond));
+        this.renderer = new AnsiRenderer(out, tenths);
+    }
+
+    /**
+     * Starts drawing the tiles of the sources, in rows of columns tiles
+     * @param framesPerSecond the most frames written per second
+     */
+    public static TiledView start(PrintStream out, List<String> sources, int columns, int framesPerSecond, boolean tenths) {
+        var view = new TiledView(out, sources, columns, framesPerSecond, tenths);
+        view.renderer.clear();
+        view.scope.submit(view::run);
+        return view;
+    }
+
+    /**
+     * Renders the state into the tile of the source. May be called from any thread.
+     */
+    @Override
+    public void accept(String source, JCState state) {
+        Tile tile = bySource.get(source);
+        if (tile == null) return;
+        String[] rendered = JCState.render(state, tenths).lines().toArray(String[]::new);
+        String[] lines = new String[rendered.length + 1];
+        lines[0] = pad(source);
+        for (int i = 0; i < rendered.length; i++) lines[i + 1] = pad(rendered[i]);
+        tile.lines = lines;
+        dirty.set(true);
+    }
+
+    public void stop() {
+        scope.close();
+    }
+
+    private void run() {
+        while(true) {
+            try {
+                Thread.sleep(frameInterval);
+            } catch(InterruptedException ie) {
+                break;
+            }
+            if (dirty.getAndSet(false)) renderer.draw(compose());
+        }
+    }
+
+    String compose() {
+        String[][] snapshot = new String[tiles.size()][];
+        for (int i = 0; i < snapshot.length; i++) snapshot[i] = tiles.get(i).lines;
+
+        var frame = new StringBuilder();
+        for (int first = 0; first < snapshot.length; first += columns) {
+            int last = Math.min(first + columns, snapshot.length);
+            int row = first / columns;
+            for (int i = first; i < last; i++) rowHeights[row] = Math.max(rowHeights[row], snapshot[i].length);
+            int height = rowHeights[row];
+            for (int line = 0; line < height; line++) {
+                for (int i = first; i < last; i++) {
+                    frame.append(line < snapshot[i].length ? snapshot[i][line] : blank);
+                }
+                frame.append('\n');
+            }
+            frame.append('\n');
+        }
+        return frame.toString();
+    }
+
+    static String pad(String line) {
+        return line.length() >= tileWidth
+            ? line.substring(0, tileWidth - 1) + " "
+            : line + blank.substring(line.length());
+    }
+}
@@ -0,0 +1,71 @@
+package jc.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Custom JFR events of the feed and play pipelines.
+ * Record with i.e {@code jcmd <pid> JFR.start name=jc} and {@code jcmd <pid> JFR.dump name=jc filename=jc.jfr}
+ */
+public final class Events {
+
+    private Events() {}
+
+    @Name("jc.Delivered")
+    @Label("Event Delivered")
+    @Category("jc")
+    @Description("An event folded into the state and handed to the consumer")
+    public static final class Delivered extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+
+        @Label("Queue Depth")
+        public int queueDepth;
+
+        @Label("Age")
+        @Description("Time from stream arrival to consumer")
+        @Timespan(Timespan.NANOSECONDS)
+        public long age;
+    }
+
+    @Name("jc.Dropped")
+    @Label("Event Dropped")
+    @Category("jc")
+    @Description("An offered event which didn't fit in the queue")
+    public static final class Dropped extends Event {
+        @Label("Pipeline")
+        public String pipeline;
+    }
+
+    @Name("jc.Render")
+    @Label("Render")
+    @Category("jc")
+    public static final class Render extends Event {
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long renderTime;
+    }
+
+    @Name("jc.FenParse")
+    @Label("FEN Parse")
+    @Category("jc")
+    public static final class FenParse extends Event {
+        @Label("FEN")
+        public String fen;
+
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long parseTime;
+    }
+
+    @Name("jc.Failure")
+    @Label("Failure")
+    @Category("jc")
+    @Description("Something which failed without stopping the process, i.e a tick registration which threw")
+    public static final class Failure extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Message")
+        public String message;
+    }
+}
@@ -0,0 +1,79 @@
+package jc.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of nanosecond values, within 12.5% of the recorded values.
+ * Each power of two is split in 8 buckets, so the whole long range fits in 512 counters.
+ */
+public final class Histogram {
+
+    public record Percentiles(long count, double p50Millis, double p99Millis, double p999Millis, double maxMillis) {}
+
+    static final int subBits = 3;
+    static final int subBuckets = 1 << subBits;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * subBuckets);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * The counts of the buckets so far, for {@link #percentiles} of the values recorded between two calls
+     */
+    public long[] counts() {
+        long[] counts = new long[this.counts.length()];
+        for (int i = 0; i < counts.length; i++) counts[i] = this.counts.get(i);
+        return counts;
+    }
+
+    /**
+     * Percentiles of the values recorded between two calls of {@link #counts}
+     * @param previous the counts of the earlier call, or an empty array for all values
+     */
+    public static Percentiles percentiles(long[] counts, long[] previous) {
+        long[] recorded = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < recorded.length; i++) {
+            recorded[i] = counts[i] - (i < previous.length ? previous[i] : 0);
+            count += recorded[i];
+        }
+        int max = 0;
+        for (int i = 0; i < recorded.length; i++) if (recorded[i] > 0) max = i;
+        return new Percentiles(count,
+                percentile(recorded, count, 0.5),
+                percentile(recorded, count, 0.99),
+                percentile(recorded, count, 0.999),
+                count == 0 ? 0 : upperBound(max) / 1e6);
+    }
+
+    static double percentile(long[] recorded, long count, double fraction) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < recorded.length; i++) {
+            seen += recorded[i];
+            if (seen >= rank) return upperBound(i) / 1e6;
+        }
+        return upperBound(recorded.length - 1) / 1e6;
+    }
+
+    // Values below subBuckets have a bucket each, above that the highest bit
+    // selects the power of two and the next bits the bucket within it.
+    static int bucket(long value) {
+        if (value < subBuckets) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - subBits)) & (subBuckets - 1);
+        return (exponent - subBits + 1) * subBuckets + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < subBuckets) return bucket;
+        int exponent = bucket / subBuckets + subBits - 1;
+        long sub = bucket % subBuckets;
+        long base = 1L << exponent;
+        long width = base >>> subBits;
+        return base + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,261 @@
+package jc.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Counters of the hot paths, readable as a {@link Snapshot} through a {@link Reader},
+ * and recorded as custom JFR {@link Events} when a recording is active.
+ */
+public final class Metrics {
+
+    private Metrics() {}
+
+    /**
+     * @param eventsPerSecond rate since the previous snapshot
+     * @param coalesced events merged into a later event of their queues, i.e ticks and board updates of a slow consumer
+     * @param meanAgeMillis mean event age since the previous snapshot
+     * @param maxAgeMillis max event age since the previous snapshot
+     */
+    public record PipelineSnapshot(String name, int queueDepth, long events, double eventsPerSecond,
+            long coalesced, long dropped, double meanAgeMillis, double maxAgeMillis) {}
+
+    /**
+     * @param age percentiles of the event age of all pipelines, since the previous snapshot
+     * @param meanRenderMicros mean render time since the previous snapshot
+     * @param meanFenParseMicros mean FEN parse time since the previous snapshot
+     */
+    public record Snapshot(List<PipelineSnapshot> pipelines,
+            Histogram.Percentiles age,
+            long renders, double meanRenderMicros,
+            long fenParses, double meanFenParseMicros,
+            long failures) {}
+
+    private static final Set<Pipeline> pipelines = ConcurrentHashMap.newKeySet();
+    private static final LongAdder renders = new LongAdder();
+    private static final LongAdder renderNanos = new LongAdder();
+    private static final LongAdder fenParses = new LongAdder();
+    private static final LongAdder fenParseNanos = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final Histogram ages = new Histogram();
+
+    // Loading the first event class initializes JFR, which takes a few hundred milliseconds.
+    // When a recording is started with the JVM it is done right away, so no events are missed.
+    // Otherwise it is done in the background instead of delaying the first board, and no events are
+    // created until it is done - a recording started within the first few hundred milliseconds misses them.
+    private static volatile boolean jfr = false;
+
+    static {
+        if (recordingAtStartup()) {
+            initJfr();
+        } else {
+            Thread.ofVirtual().name("jc-jfr").start(Metrics::initJfr);
+        }
+    }
+
+    private static void initJfr() {
+        new Events.Delivered();
+        new Events.Dropped();
+        new Events.Render();
+        new Events.FenParse();
+        new Events.Failure();
+        jfr = true;
+    }
+
+    private static boolean recordingAtStartup() {
+        return ProcessHandle.current().info().arguments()
+            .map(arguments -> Arrays.stream(arguments).anyMatch(argument -> argument.startsWith("-XX:StartFlightRecording")))
+            .orElse(false);
+    }
+
+    /**
+     * Metrics of one feed or game
+     */
+    public static final class Pipeline implements AutoCloseable {
+        final String name;
+        final IntSupplier queueDepth;
+        final LongSupplier coalesced;
+        final LongAdder events = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder ageNanos = new LongAdder();
+        final Histogram ages = new Histogram();
+
+        Pipeline(String name, IntSupplier queueDepth, LongSupplier coalesced) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.coalesced = coalesced;
+        }
+
+        /**
+         * @param arrivedNanos {@link System#nanoTime()} when the event was read from the stream, before it was parsed
+         */
+        public void delivered(long arrivedNanos) {
+            long age = System.nanoTime() - arrivedNanos;
+            events.increment();
+            ageNanos.add(age);
+            ages.record(age);
+            Metrics.ages.record(age);
+            if (!jfr) return;
+
+            var event = new Events.Delivered();
+            if (event.shouldCommit()) {
+                event.pipeline = name;
+                event.queueDepth = queueDepth.getAsInt();
+                event.age = age;
+                event.commit();
+            }
+        }
+
+        public void dropped() {
+            dropped.increment();
+            if (!jfr) return;
+
+            var event = new Events.Dropped();
+            if (event.shouldCommit()) {
+                event.pipeline = name;
+                event.commit();
+            }
+        }
+
+        @Override
+        public void close() {
+            pipelines.remove(this);
+        }
+
+        Totals totals() {
+            return new Totals(events.sum(), dropped.sum(), ageNanos.sum(), ages.counts());
+        }
+
+        record Totals(long events, long dropped, long ageNanos, long[] ages) {
+            static final Totals none = new Totals(0, 0, 0, new long[0]);
+        }
+    }
+
+    /**
+     * @param queueDepth events pending in the queues of the pipeline
+     * @param coalesced events merged so far by the queues of the pipeline, which count them
+     */
+    public static Pipeline register(String name, IntSupplier queueDepth, LongSupplier coalesced) {
+        var pipeline = new Pipeline(name, queueDepth, coalesced);
+        pipelines.add(pipeline);
+        return pipeline;
+    }
+
+    /**
+     * @param nanos time to render a state and hand it to its consumer
+     */
+    public static void rendered(long nanos) {
+        renders.increment();
+        renderNanos.add(nanos);
+        if (!jfr) return;
+
+        var event = new Events.Render();
+        if (event.shouldCommit()) {
+            event.renderTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param nanos time to parse the FEN into a board
+     */
+    public static void parsed(String fen, long nanos) {
+        fenParseNanos.add(nanos);
+        fenParses.increment();
+        if (!jfr) return;
+
+        var event = new Events.FenParse();
+        if (event.shouldCommit()) {
+            event.fen = fen;
+            event.parseTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts a failure which was handled without stopping the process, and records it as a JFR event
+     */
+    public static void failed(String source, String message) {
+        failures.increment();
+        if (!jfr) return;
+
+        var event = new Events.Failure();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.message = message;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts reading snapshots, the first one covering the time since now
+     */
+    public static Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Reads snapshots of the counters, each covering the time since its previous snapshot.
+     * The counters are never reset - each reader keeps the totals of its own previous snapshot,
+     * so several readers, i.e --metrics and a soak test, don't disturb each other.
+     */
+    public static final class Reader {
+        private long previousNanos;
+        private Map<Pipeline, Pipeline.Totals> previousPipelines = Map.of();
+        private long[] previousAges = new long[0];
+        private long previousRenders;
+        private long previousRenderNanos;
+        private long previousFenParses;
+        private long previousFenParseNanos;
+
+        Reader() {
+            snapshot();
+        }
+
+        public synchronized Snapshot snapshot() {
+            long now = System.nanoTime();
+            double seconds = (now - previousNanos) / 1e9;
+            Map<Pipeline, Pipeline.Totals> currentPipelines = new HashMap<>();
+            List<PipelineSnapshot> snapshots = new ArrayList<>();
+            for (Pipeline pipeline : pipelines) {
+                var totals = pipeline.totals();
+                var previous = previousPipelines.getOrDefault(pipeline, Pipeline.Totals.none);
+                currentPipelines.put(pipeline, totals);
+                long events = totals.events() - previous.events();
+                snapshots.add(new PipelineSnapshot(pipeline.name, pipeline.queueDepth.getAsInt(), totals.events(),
+                            seconds > 0 ? events / seconds : 0,
+                            pipeline.coalesced.getAsLong(),
+                            totals.dropped(),
+                            events == 0 ? 0 : (totals.ageNanos() - previous.ageNanos()) / 1e6 / events,
+                            Histogram.percentiles(totals.ages(), previous.ages()).maxMillis()));
+            }
+            snapshots.sort(Comparator.comparing(PipelineSnapshot::name));
+
+            long[] ageCounts = ages.counts();
+            long renderCount = renders.sum();
+            long renderTime = renderNanos.sum();
+            long parseCount = fenParses.sum();
+            long parseTime = fenParseNanos.sum();
+            var snapshot = new Snapshot(snapshots,
+                    Histogram.percentiles(ageCounts, previousAges),
+                    renderCount, meanMicros(renderTime - previousRenderNanos, renderCount - previousRenders),
+                    parseCount, meanMicros(parseTime - previousFenParseNanos, parseCount - previousFenParses),
+                    failures.sum());
+
+            previousNanos = now;
+            previousPipelines = currentPipelines;
+            previousAges = ageCounts;
+            previousRenders = renderCount;
+            previousRenderNanos = renderTime;
+            previousFenParses = parseCount;
+            previousFenParseNanos = parseTime;
+            return snapshot;
+        }
+
+        static double meanMicros(long nanos, long count) {
+            return count == 0 ? 0 : nanos / 1e3 / count;
+        }
+    }
+}
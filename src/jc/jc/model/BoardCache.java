@@ -0,0 +1,23 @@
+package jc.model;
+
+import chariot.util.Board;
+
+/**
+ * Bounded LRU cache of rendered boards, keyed by position and orientation.
+ * The board only changes when a move is made, so clock ticks - and all viewers
+ * of the same game - reuse the already rendered board.
+ */
+final class BoardCache {
+
+    static final int capacity = 1024;
+
+    record Key(String fen, boolean flipped) {}
+
+    private static final LruCache<Key, String> cache = new LruCache<>(capacity);
+
+    static String render(Board board, boolean flipped) {
+        return cache.get(new Key(board.toFEN(), flipped), _ -> flipped
+            ? board.toString(c -> c.frame().flipped().coordinates())
+            : board.toString(c -> c.frame().coordinates()));
+    }
+}
@@ -0,0 +1,237 @@
+package jc.model;
+
+import java.util.Arrays;
+
+import chariot.util.Board;
+import jc.model.JCState.JCPlayerInfo;
+
+/**
+ * Bounded history of the states of the current game, for stepping back and forth through it.
+ *
+ * A ring of plies, each stored as the squares which changed since the ply before, the rest of
+ * the FEN packed in a long, the clocks and the last move - the board of a ply is rebuilt from
+ * the oldest kept board when asked for. When the ring is full the oldest ply is folded into the
+ * oldest board, so a game of any length, and any number of games, takes a fixed amount of memory.
+ *
+ * The cursor is live until stepped back, and follows new plies again when stepped forward to the latest.
+ */
+public final class History {
+
+    public static final int defaultCapacity = 512;
+
+    static final String castlingLetters = "KQABCDEFGHkqabcdefgh";
+
+    private final int capacity;
+    private final byte[][] deltas;
+    private final long[] fenFields;
+    private final long[] whiteMillis;
+    private final long[] blackMillis;
+    private final String[] lastMoves;
+
+    private final char[] oldest = new char[64];
+    private final char[] latest = new char[64];
+    private final char[] squares = new char[64];
+    private int first = 0;
+    private int size = 0;
+    private int cursor = -1;
+
+    private JCPlayerInfo white;
+    private JCPlayerInfo black;
+    private boolean flipped;
+
+    public History() {
+        this(defaultCapacity);
+    }
+
+    public History(int capacity) {
+        this.capacity = capacity;
+        deltas = new byte[capacity][];
+        fenFields = new long[capacity];
+        whiteMillis = new long[capacity];
+        blackMillis = new long[capacity];
+        lastMoves = new String[capacity];
+    }
+
+    /**
+     * Starts over with the first position of a new game, and follows it live
+     */
+    public synchronized void newGame(JCPlayerInfo white, JCPlayerInfo black, Board board, boolean flipped) {
+        for (int i = 0; i < capacity; i++) {
+            deltas[i] = null;
+            lastMoves[i] = null;
+        }
+        first = 0;
+        size = 0;
+        cursor = -1;
+        this.white = white;
+        this.black = black;
+        this.flipped = flipped;
+        record(board, white.time().toMillis(), black.time().toMillis(), null);
+    }
+
+    /**
+     * Adds the position as the latest ply, if it differs from the latest one
+     * @param lm the last move, or null
+     */
+    public synchronized void record(Board board, long whiteMillis, long blackMillis, String lm) {
+        if (white == null) return;
+        String fen = board.toFEN();
+        long fields = fenFields(fen);
+
+        placement(fen, squares);
+        byte[] delta = size == 0 ? new byte[0] : delta(latest, squares);
+        if (size > 0 && delta.length == 0 && fields == fenFields[index(size - 1)]) return;
+
+        if (size == capacity) {
+            // The second oldest ply becomes the oldest, with its board as the oldest board
+            apply(deltas[index(1)], oldest);
+            first = index(1);
+            size--;
+            if (cursor > 0) cursor--;
+        }
+        if (size == 0) System.arraycopy(squares, 0, oldest, 0, 64);
+        System.arraycopy(squares, 0, latest, 0, 64);
+
+        int i = index(size++);
+        deltas[i] = delta;
+        fenFields[i] = fields;
+        this.whiteMillis[i] = whiteMillis;
+        this.blackMillis[i] = blackMillis;
+        lastMoves[i] = lm;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if stepped back from the latest ply
+     */
+    public synchronized boolean scrubbing() {
+        return cursor >= 0;
+    }
+
+    /**
+     * Moves the cursor by a number of plies, negative to step back.
+     * @return the state at the cursor, or null if the cursor is live again - i.e at the latest ply
+     */
+    public synchronized JCState step(int plies) {
+        if (size == 0) return null;
+        int from = cursor < 0 ? size - 1 : cursor;
+        int to = Math.clamp((long) from + plies, 0, size - 1);
+        if (to == size - 1) {
+            cursor = -1;
+            return null;
+        }
+        cursor = to;
+        return at(to);
+    }
+
+    /**
+     * The state of a ply, 0 being the oldest kept ply
+     */
+    public synchronized JCState at(int ply) {
+        char[] board = oldest.clone();
+        for (int i = 1; i <= ply; i++) apply(deltas[index(i)], board);
+        int i = index(ply);
+        return state(Board.fromFEN(fen(board, fenFields[i])), i);
+    }
+
+    private JCState state(Board board, int i) {
+        JCState state = JCState.of(white, black, board, flipped);
+        long now = System.nanoTime();
+        return lastMoves[i] == null
+            ? state.withUpdate(board, whiteMillis[i], blackMillis[i], now)
+            : state.withUpdate(board, whiteMillis[i], blackMillis[i], lastMoves[i], now);
+    }
+
+    private int index(int ply) {
+        return (first + ply) % capacity;
+    }
+
+    // Pairs of square index and the FEN letter now on it, ' ' for empty
+    static byte[] delta(char[] from, char[] to) {
+        int changed = 0;
+        for (int i = 0; i < 64; i++) if (from[i] != to[i]) changed++;
+        byte[] delta = new byte[changed * 2];
+        int d = 0;
+        for (int i = 0; i < 64; i++) {
+            if (from[i] == to[i]) continue;
+            delta[d++] = (byte) i;
+            delta[d++] = (byte) to[i];
+        }
+        return delta;
+    }
+
+    static void apply(byte[] delta, char[] squares) {
+        for (int d = 0; d < delta.length; d += 2) squares[delta[d]] = (char) delta[d + 1];
+    }
+
+    static void placement(String fen, char[] squares) {
+        Arrays.fill(squares, ' ');
+        int square = 0;
+        for (int i = 0; i < fen.length() && square < 64; i++) {
+            char c = fen.charAt(i);
+            if (c == ' ') break;
+            if (c == '/') continue;
+            if (Character.isDigit(c)) {
+                square += c - '0';
+            } else {
+                squares[square++] = c;
+            }
+        }
+    }
+
+    // side to move:1 castling:20 en passant:7 halfmove clock:12 fullmove number:24
+    static long fenFields(String fen) {
+        String[] fields = fen.split(" ");
+        long black = fields.length > 1 && fields[1].equals("b") ? 1 : 0;
+        long castling = 0;
+        if (fields.length > 2) {
+            for (char c : fields[2].toCharArray()) {
+                int bit = castlingLetters.indexOf(c);
+                if (bit >= 0) castling |= 1L << bit;
+            }
+        }
+        long enPassant = fields.length > 3 && fields[3].length() == 2
+            ? (fields[3].charAt(0) - 'a') + 8 * ('8' - fields[3].charAt(1))
+            : 64;
+        long halfmove = fields.length > 4 ? Math.min(4095, Long.parseLong(fields[4])) : 0;
+        long fullmove = fields.length > 5 ? Math.min((1 << 24) - 1, Long.parseLong(fields[5])) : 1;
+        return black | castling << 1 | enPassant << 21 | halfmove << 28 | fullmove << 40;
+    }
+
+    static String fen(char[] squares, long fields) {
+        var fen = new StringBuilder(90);
+        for (int rank = 0; rank < 8; rank++) {
+            if (rank > 0) fen.append('/');
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                char c = squares[rank * 8 + file];
+                if (c == ' ') {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) fen.append(empty);
+                empty = 0;
+                fen.append(c);
+            }
+            if (empty > 0) fen.append(empty);
+        }
+        fen.append((fields & 1) == 0 ? " w " : " b ");
+        long castling = (fields >>> 1) & ((1 << 20) - 1);
+        if (castling == 0) fen.append('-');
+        for (int bit = 0; bit < 20; bit++) {
+            if ((castling & 1L << bit) != 0) fen.append(castlingLetters.charAt(bit));
+        }
+        int enPassant = (int) ((fields >>> 21) & 127);
+        if (enPassant >= 64) {
+            fen.append(" -");
+        } else {
+            fen.append(' ').append((char) ('a' + enPassant % 8)).append((char) ('8' - enPassant / 8));
+        }
+        fen.append(' ').append((fields >>> 28) & 4095);
+        fen.append(' ').append(fields >>> 40);
+        return fen.toString();
+    }
+}
@@ -33,6 +33,32 @@ public sealed interface JCState {
         };
     }
 
+    /**
+     * Applies a whole board update in one transition, keeping the last move
+     * @param stampNanos {@link System#nanoTime()} when the clocks were read from the server,
+     * which the clock of the side to move counts down from
+     */
+    default JCState withUpdate(Board board, long whiteMillis, long blackMillis, long stampNanos) {
+        return switch(this) {
+            case None n -> n;
+            case Basic b -> b.withUpdate(board, whiteMillis, blackMillis, stampNanos);
+            case WithMove(Basic b, var lm) -> new WithMove(b.withUpdate(board, whiteMillis, blackMillis, stampNanos), lm);
+        };
+    }
+
+    /**
+     * Applies a whole board update in one transition
+     * @param stampNanos {@link System#nanoTime()} when the clocks were read from the server,
+     * which the clock of the side to move counts down from
+     */
+    default JCState withUpdate(Board board, long whiteMillis, long blackMillis, String lm, long stampNanos) {
+        return switch(this) {
+            case None n -> n;
+            case Basic b -> new WithMove(b.withUpdate(board, whiteMillis, blackMillis, stampNanos), lm);
+            case WithMove(Basic b, _) -> new WithMove(b.withUpdate(board, whiteMillis, blackMillis, stampNanos), lm);
+        };
+    }
+
     default JCState withLastMove(String lm) {
         return switch(this) {
             case None n -> n;
@@ -41,16 +67,16 @@ public sealed interface JCState {
         };
     }
 
-    default JCState withOneSecondTick() {
+
+    static Duration scrambleThreshold = Duration.ofSeconds(10);
+
+    default boolean timeScramble() {
         return switch(this) {
-            case None n -> n;
-            case Basic b -> b.board().whiteToMove()
-                ? b.withWhiteTime(b.white.syntheticTime.minusSeconds(1))
-                : b.withBlackTime(b.black.syntheticTime.minusSeconds(1));
-            case WithMove wm -> new WithMove(wm.basic.board.whiteToMove()
-                    ? wm.basic().withWhiteTime(wm.basic.white.syntheticTime.minusSeconds(1))
-                    : wm.basic().withBlackTime(wm.basic.black.syntheticTime.minusSeconds(1)),
-                    wm.lm);
+            case None _ -> false;
+            case Basic b -> (b.board.whiteToMove()
+                    ? b.white.syntheticMillis(true)
+                    : b.black.syntheticMillis(true)) < scrambleThreshold.toMillis();
+            case WithMove wm -> wm.basic.timeScramble();
         };
     }
 
@@ -59,6 +85,11 @@ public sealed interface JCState {
         public Basic withWhiteTime(Duration time) { return new Basic(white.withTime(time), black, board, flipped); }
         public Basic withBlackTime(Duration time) { return new Basic(white, black.withTime(time), board, flipped); }
         public Basic withBoard(Board board)        { return new Basic(white, black, board, flipped); }
+        public Basic withUpdate(Board board, long whiteMillis, long blackMillis, long stampNanos) {
+            return new Basic(white.withMillis(whiteMillis, stampNanos), black.withMillis(blackMillis, stampNanos), board, flipped);
+        }
+        public Duration whiteTime() { return white.syntheticTime(board.whiteToMove()); }
+        public Duration blackTime() { return black.syntheticTime(board.blackToMove()); }
     }
 
     record WithMove(Basic basic, String lm) implements JCState {}
@@ -74,11 +105,34 @@ public sealed interface JCState {
     public record JCUser(String name, String title) {}
     public record JCPlayerInfo(JCUser user, Duration time, Color color) {}
 
-    public record JCPlayerAndClock(JCPlayerInfo info, Duration syntheticTime) {
+    /**
+     * @param millis the clock as last reported by the server
+     * @param stampNanos {@link System#nanoTime()} when the server clock was received
+     */
+    public record JCPlayerAndClock(JCPlayerInfo info, long millis, long stampNanos) {
+        public JCPlayerAndClock(JCPlayerInfo info, Duration serverTime) { this(info, serverTime.toMillis(), System.nanoTime()); }
         public JCPlayerAndClock withTime(Duration time) { return new JCPlayerAndClock(info, time); }
+        public JCPlayerAndClock withMillis(long millis, long stampNanos) { return new JCPlayerAndClock(info, millis, stampNanos); }
+        public Duration serverTime() { return Duration.ofMillis(millis); }
+
+        public long syntheticMillis(boolean running) {
+            if (!running) return millis;
+            return Math.max(0, millis - (System.nanoTime() - stampNanos) / 1_000_000);
+        }
+
+        public Duration syntheticTime(boolean running) {
+            return Duration.ofMillis(syntheticMillis(running));
+        }
     }
 
     public static String render(JCState jcstate) {
+        return render(jcstate, false);
+    }
+
+    /**
+     * @param tenths show tenths of a second when the clock is below {@link #scrambleThreshold}
+     */
+    public static String render(JCState jcstate, boolean tenths) {
         Basic state = switch(jcstate) {
             case None n -> null;
             case Basic b -> b;
@@ -90,14 +144,13 @@ public sealed interface JCState {
         var lowerPlayer = state.flipped() ? state.black() : state.white();
         String upperTitle = upperPlayer.info().user().title().isEmpty() ? "" : upperPlayer.info().user().title() + " ";
         String upperName =  upperPlayer.info().user().name();
-        String upperClock = formatTime(upperPlayer.syntheticTime());
+        String upperClock = formatTime(state.flipped() ? state.whiteTime() : state.blackTime(), tenths);
         String upperToMove = (state.flipped() && state.board().whiteToMove()) ||
             (!state.flipped() && state.board().blackToMove()) ? "*" : "";
-        String board = state.flipped() ? state.board().toString(c -> c.frame().flipped().coordinates()) :
-            state.board().toString(c -> c.frame().coordinates());
+        String board = BoardCache.render(state.board(), state.flipped());
         String lowerToMove = (state.flipped() && state.board().blackToMove()) ||
             (!state.flipped() && state.board().whiteToMove()) ? "*" : "";
-        String lowerClock = formatTime(lowerPlayer.syntheticTime());
+        String lowerClock = formatTime(state.flipped() ? state.blackTime() : state.whiteTime(), tenths);
         String lowerTitle = lowerPlayer.info().user().title().isEmpty() ? "" : lowerPlayer.info().user().title() + " ";
         String lowerName = lowerPlayer.info().user().name();
 
@@ -118,7 +171,22 @@ public sealed interface JCState {
     }
 
     static String formatTime(Duration time) {
-        return String.format("%d:%02d:%02d", time.toHoursPart(), time.toMinutesPart(), time.toSecondsPart());
+        return formatTime(time, false);
+    }
+
+    // Appended by hand instead of String.format, which is slow per call and loads locale data at startup
+    static String formatTime(Duration time, boolean tenths) {
+        var sb = new StringBuilder(10).append(time.toHoursPart()).append(':');
+        twoDigits(sb, time.toMinutesPart()).append(':');
+        twoDigits(sb, time.toSecondsPart());
+        if (tenths && time.compareTo(scrambleThreshold) < 0) {
+            sb.append('.').append(time.toMillisPart() / 100);
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder twoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
     }
 
 }
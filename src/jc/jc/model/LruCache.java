@@ -0,0 +1,37 @@
+package jc.model;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Bounded cache which evicts the least recently used entry, safe for use from several threads.
+ * A missing value is computed outside of the lock, so a slow computation doesn't hold up other
+ * threads - two threads may then compute the same value, and the last one is kept.
+ */
+public final class LruCache<K, V> {
+
+    private final Map<K, V> cache;
+
+    public LruCache(int capacity) {
+        cache = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public V get(K key, Function<? super K, ? extends V> compute) {
+        synchronized(cache) {
+            V value = cache.get(key);
+            if (value != null) return value;
+        }
+
+        V value = compute.apply(key);
+
+        synchronized(cache) {
+            cache.put(key, value);
+        }
+        return value;
+    }
+}
@@ -1,4 +1,5 @@
 module jc {
     requires chariot;
     requires java.desktop;
+    requires jdk.jfr;
 }
@@ -0,0 +1,101 @@
+package jc.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import jc.metrics.Metrics;
+import jc.model.JCState;
+
+/**
+ * Watches and plays thousands of synthetic games in sequence, each stopped while its events
+ * are still coming, and checks that the threads of each have finished, that none failed,
+ * and that metrics and heap don't grow with the number of games.
+ */
+class LifecycleTest {
+
+    static final int feeds = 2000;
+    static final int gameBatches = 20;
+    static final int gamesPerBatch = 100;
+    static final long heapSlack = 32 << 20;
+    // As a live source, which waits for its next event - a source which never waits may keep the
+    // only carrier thread of a single CPU busy
+    static final Duration moveInterval = Duration.ofMillis(1);
+
+    @Test
+    void stoppedFeedsLeaveNothingBehind() throws Exception {
+        // The first feed starts what is shared by all feeds, i.e the ticker and the caches
+        watchAndStop(0);
+        long failures = Metrics.reader().snapshot().failures();
+        long heap = usedHeapAfterGc();
+
+        for (int i = 1; i <= feeds; i++) watchAndStop(i);
+
+        assertEquals(failures, Metrics.reader().snapshot().failures(), "Failures");
+        assertEquals(List.of(), Metrics.reader().snapshot().pipelines());
+        assertHeap(heap);
+    }
+
+    @Test
+    void stoppedGamesLeaveNothingBehind() throws Exception {
+        playAndStop(0);
+        long failures = Metrics.reader().snapshot().failures();
+        long heap = usedHeapAfterGc();
+
+        for (int i = 1; i <= gameBatches; i++) playAndStop(i);
+
+        assertEquals(failures, Metrics.reader().snapshot().failures(), "Failures");
+        assertEquals(List.of(), Metrics.reader().snapshot().pipelines());
+        assertHeap(heap);
+    }
+
+    static void watchAndStop(int seed) throws InterruptedException {
+        var firstBoard = new CountDownLatch(1);
+        Feed feed = Feed.featuredGame(state -> { if (!(state instanceof JCState.None)) firstBoard.countDown(); },
+                SyntheticFeed.randomGames(new Random(seed), moveInterval));
+        assertTrue(firstBoard.await(10, TimeUnit.SECONDS), "No board from feed " + seed);
+        feed.stop();
+        // The stages are virtual threads, which no thread count sees - but the scope knows when they have finished
+        assertTrue(((Feed.FeedHandle) feed).scope().isTerminated(), "Threads left of feed " + seed);
+    }
+
+    // A batch of games at a time, as each game is given a moment to submit pending commands when stopped
+    static void playAndStop(int batch) throws InterruptedException {
+        var firstBoards = new CountDownLatch(gamesPerBatch);
+        List<Game> games = IntStream.range(0, gamesPerBatch)
+            .mapToObj(i -> {
+                var firstBoard = new CountDownLatch(1);
+                return Game.synthetic("lifecycle-" + batch + "-" + i,
+                        SyntheticFeed.gameStates(new Random(batch * gamesPerBatch + i), moveInterval),
+                        state -> {
+                            if (!(state instanceof JCState.None) && firstBoard.getCount() > 0) {
+                                firstBoard.countDown();
+                                firstBoards.countDown();
+                            }
+                        });
+            })
+            .toList();
+        assertTrue(firstBoards.await(10, TimeUnit.SECONDS), "No board from games of batch " + batch);
+        Game.stopAll(games);
+        for (Game game : games) assertTrue(game.scope.isTerminated(), "Threads left of game " + game.info().gameId());
+    }
+
+    static void assertHeap(long before) throws InterruptedException {
+        long after = usedHeapAfterGc();
+        assertTrue(after - before < heapSlack, "Heap grew from " + (before >> 20) + " MiB to " + (after >> 20) + " MiB");
+    }
+
+    static long usedHeapAfterGc() throws InterruptedException {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}